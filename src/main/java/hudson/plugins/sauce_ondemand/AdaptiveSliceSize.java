@@ -0,0 +1,46 @@
+package hudson.plugins.sauce_ondemand;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks how many job ids to ask Sauce about in one job details request.
+ *
+ * <p>Starts at {@link #INITIAL} and moves towards the size which Sauce answers in about {@link
+ * #TARGET_MILLIS}. If Sauce returns fewer jobs than asked for, the size drops to what it returned.
+ */
+final class AdaptiveSliceSize {
+
+  static final int INITIAL = 20;
+  static final int MIN = 5;
+  static final int MAX = 100;
+  static final long TARGET_MILLIS = 2000;
+
+  /** Weight given to the newest observation. */
+  private static final double SMOOTHING = 0.3;
+
+  private double size = INITIAL;
+
+  synchronized int get() {
+    return (int) Math.round(size);
+  }
+
+  /**
+   * @param requested number of job ids asked for
+   * @param returned number of jobs Sauce returned
+   * @param elapsedNanos time the request took
+   */
+  synchronized void record(int requested, int returned, long elapsedNanos) {
+    if (requested <= 0) {
+      return;
+    }
+    if (returned > 0 && returned < requested) {
+      // the response was cut short, don't ask for more than Sauce is willing to return
+      size = Math.max(MIN, returned);
+      return;
+    }
+    double millisPerJob =
+        Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsedNanos)) / (double) requested;
+    double ideal = Math.max(MIN, Math.min(MAX, TARGET_MILLIS / millisPerJob));
+    size = size + SMOOTHING * (ideal - size);
+  }
+}
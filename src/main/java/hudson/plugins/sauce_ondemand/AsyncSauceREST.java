@@ -0,0 +1,549 @@
+package hudson.plugins.sauce_ondemand;
+
+import com.saucelabs.saucerest.JobSource;
+import com.saucelabs.saucerest.api.AccountsEndpoint;
+import com.saucelabs.saucerest.api.BuildsEndpoint;
+import com.saucelabs.saucerest.api.JobsEndpoint;
+import com.saucelabs.saucerest.api.SauceConnectEndpoint;
+import com.saucelabs.saucerest.model.builds.Build;
+import com.saucelabs.saucerest.model.builds.JobsInBuild;
+import com.saucelabs.saucerest.model.builds.LookupBuildsParameters;
+import com.saucelabs.saucerest.model.builds.LookupJobsParameters;
+import com.saucelabs.saucerest.model.jobs.Job;
+import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import org.kohsuke.stapler.Stapler;
+
+/**
+ * Asynchronous view of a {@link JenkinsSauceREST} client.
+ *
+ * <p>Every call runs on a bounded executor owned by the plugin and completes a {@link
+ * CompletableFuture}, so callers can fan out and compose requests instead of parking Stapler
+ * request threads or build executors on each round trip. The size of the executor is set by {@link
+ * PluginImpl#getRestConcurrencyLimit()}.
+ *
+ * <p>Queued calls are ordered by {@link Priority}, so page views are served ahead of the job updates
+ * sent by finishing builds. Calls made while handling an HTTP request default to {@link
+ * Priority#INTERACTIVE}, everything else to {@link Priority#BACKGROUND}.
+ *
+ * <p>Identical read-only lookups made through the same client share a single call while it is in
+ * flight and for {@link #COALESCE_WINDOW_MILLIS} after it returns, so a page open on many screens
+ * does not multiply the requests sent to Sauce.
+ *
+ * <p>A call is only given a thread once its account has a {@link SauceRateLimiter} token. Calls of
+ * a throttled account wait outside the pool, and calls which are throttled part way through are
+ * queued again, so one busy account never holds the threads the others need.
+ */
+public class AsyncSauceREST {
+
+  /**
+   * A single request against a Sauce REST endpoint.
+   *
+   * @param <E> endpoint type
+   * @param <T> result type
+   */
+  @FunctionalInterface
+  public interface Call<E, T> {
+    T call(E endpoint) throws IOException;
+  }
+
+  /** Order in which queued calls are started. */
+  public enum Priority {
+    INTERACTIVE,
+    BACKGROUND
+  }
+
+  private static final Logger logger = Logger.getLogger(AsyncSauceREST.class.getName());
+
+  /** Number of concurrent Sauce REST calls used until {@link PluginImpl} says otherwise. */
+  public static final int DEFAULT_CONCURRENCY = 8;
+
+  private static final ThreadPoolExecutor executor =
+      new ThreadPoolExecutor(
+          DEFAULT_CONCURRENCY,
+          DEFAULT_CONCURRENCY,
+          60L,
+          TimeUnit.SECONDS,
+          new PriorityBlockingQueue<>(),
+          new NamingThreadFactory(new DaemonThreadFactory(), "SauceREST"));
+
+  static {
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Longest time a call made while rendering a page may take once it started. Callers stop waiting
+   * after it, and the call counts once against the data center's {@link SauceCircuitBreaker} if it
+   * takes longer. Time spent queued or held back by the rate limit does not count, and a call sent
+   * back to the queue by a 429 gets the whole deadline again once it runs again.
+   */
+  static final long INTERACTIVE_TIMEOUT_MILLIS =
+      TimeUnit.SECONDS.toMillis(
+          SystemProperties.getLong(
+              AsyncSauceREST.class.getName() + ".interactiveTimeoutSeconds", 10L));
+
+  /**
+   * How long the result of a read-only call is shared with identical calls made after it
+   * finished.
+   */
+  static final long COALESCE_WINDOW_MILLIS =
+      SystemProperties.getLong(AsyncSauceREST.class.getName() + ".coalesceWindowMillis", 2000L);
+
+  private static final AtomicLong sequence = new AtomicLong();
+
+  private static final ConcurrentMap<FlightKey, Flight<?>> flights =
+      new ConcurrentHashMap<>();
+  private static final AtomicLong coalesced = new AtomicLong();
+  private static final AtomicLong executed = new AtomicLong();
+
+  private final JenkinsSauceREST sauceREST;
+  private final Priority priority;
+
+  public AsyncSauceREST(JenkinsSauceREST sauceREST) {
+    this(
+        sauceREST,
+        Stapler.getCurrentRequest() != null ? Priority.INTERACTIVE : Priority.BACKGROUND);
+  }
+
+  public AsyncSauceREST(JenkinsSauceREST sauceREST, Priority priority) {
+    this.sauceREST = sauceREST;
+    this.priority = priority;
+  }
+
+  /**
+   * Changes the number of Sauce REST calls which may be in flight at the same time.
+   *
+   * @param concurrency new limit, values below 1 are treated as 1
+   */
+  public static synchronized void setConcurrency(int concurrency) {
+    int size = Math.max(1, concurrency);
+    if (size == executor.getMaximumPoolSize()) {
+      return;
+    }
+    logger.fine("Setting Sauce REST concurrency to " + size);
+    if (size > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(size);
+      executor.setCorePoolSize(size);
+    } else {
+      executor.setCorePoolSize(size);
+      executor.setMaximumPoolSize(size);
+    }
+  }
+
+  public static int getConcurrency() {
+    return executor.getMaximumPoolSize();
+  }
+
+  /**
+   * @param priority priority to count, or null for all
+   * @return number of calls waiting for a free thread
+   */
+  public static int getQueueDepth(Priority priority) {
+    if (priority == null) {
+      return executor.getQueue().size();
+    }
+    int depth = 0;
+    for (Runnable task : executor.getQueue()) {
+      if (task instanceof Task && ((Task) task).priority == priority) {
+        depth++;
+      }
+    }
+    return depth;
+  }
+
+  /** @return number of calls currently running */
+  public static int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  /** @return number of read-only calls answered by joining an identical call */
+  public static long getCoalescedCalls() {
+    return coalesced.get();
+  }
+
+  /** @return number of read-only calls actually sent to Sauce */
+  public static long getExecutedCalls() {
+    return executed.get();
+  }
+
+  public JenkinsSauceREST getSauceREST() {
+    return sauceREST;
+  }
+
+  public Priority getPriority() {
+    return priority;
+  }
+
+  public <T> CompletableFuture<T> jobs(Call<JobsEndpoint, T> call) {
+    return submit(() -> call.call(sauceREST.getJobsEndpoint()));
+  }
+
+  public <T> CompletableFuture<T> builds(Call<BuildsEndpoint, T> call) {
+    return submit(() -> call.call(sauceREST.getBuildsEndpoint()));
+  }
+
+  public <T> CompletableFuture<T> tunnels(Call<SauceConnectEndpoint, T> call) {
+    return submit(() -> call.call(sauceREST.getSauceConnectEndpoint()));
+  }
+
+  public <T> CompletableFuture<T> accounts(Call<AccountsEndpoint, T> call) {
+    return submit(() -> call.call(sauceREST.getAccountsEndpoint()));
+  }
+
+  public CompletableFuture<List<Build>> lookupBuilds(String buildName, int limit) {
+    return coalesce(
+        "lookupBuilds",
+        Arrays.asList(buildName, limit),
+        () ->
+            sauceREST
+                .getBuildsEndpoint()
+                .lookupBuilds(
+                    JobSource.VDC,
+                    new LookupBuildsParameters.Builder()
+                        .setName(buildName)
+                        .setLimit(limit)
+                        .build()));
+  }
+
+  public CompletableFuture<JobsInBuild> lookupJobsForBuild(String buildId) {
+    return coalesce(
+        "lookupJobsForBuild",
+        buildId,
+        () ->
+            sauceREST
+                .getBuildsEndpoint()
+                .lookupJobsForBuild(
+                    JobSource.VDC, buildId, new LookupJobsParameters.Builder().build()));
+  }
+
+  public CompletableFuture<Job> getJobDetails(String jobId) {
+    return coalesce("getJobDetails", jobId, () -> sauceREST.getJobsEndpoint().getJobDetails(jobId));
+  }
+
+  public CompletableFuture<List<Job>> getJobDetails(List<String> jobIds) {
+    List<String> ids = new ArrayList<>(jobIds);
+    return coalesce("getJobDetails", ids, () -> sauceREST.getJobsEndpoint().getJobDetails(ids));
+  }
+
+  public CompletableFuture<Job> updateJob(String jobId, UpdateJobParameter parameter) {
+    return jobs(endpoint -> endpoint.updateJob(jobId, parameter));
+  }
+
+  public CompletableFuture<Void> addCustomData(String jobId, Map<String, String> customData) {
+    return jobs(
+        endpoint -> {
+          endpoint.addCustomData(jobId, customData);
+          return null;
+        });
+  }
+
+  public CompletableFuture<Void> stopJob(String jobId) {
+    return jobs(
+        endpoint -> {
+          endpoint.stopJob(jobId);
+          return null;
+        });
+  }
+
+  private <T> CompletableFuture<T> submit(IOCallable<T> callable) {
+    RunClock clock = new RunClock();
+    return withDeadline(execute(callable, clock), clock);
+  }
+
+  /**
+   * Runs a read-only call, or joins an identical one which is in flight or finished less than
+   * {@link #COALESCE_WINDOW_MILLIS} ago.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> CompletableFuture<T> coalesce(
+      String operation, Object parameters, IOCallable<T> callable) {
+    FlightKey key = new FlightKey(sauceREST, operation, parameters);
+    Flight<T> flight = new Flight<>();
+    Flight<T> existing = (Flight<T>) flights.putIfAbsent(key, flight);
+    if (existing != null) {
+      coalesced.incrementAndGet();
+      return withDeadline(existing.result, existing.clock);
+    }
+    executed.incrementAndGet();
+    execute(callable, flight.clock)
+        .whenComplete(
+            (result, failure) -> {
+              if (failure != null) {
+                // never share failures, the next caller should try again
+                flights.remove(key, flight);
+                flight.result.completeExceptionally(failure);
+              } else {
+                CompletableFuture.delayedExecutor(
+                        COALESCE_WINDOW_MILLIS, TimeUnit.MILLISECONDS)
+                    .execute(() -> flights.remove(key, flight));
+                flight.result.complete(result);
+              }
+            });
+    return withDeadline(flight.result, flight.clock);
+  }
+
+  /**
+   * @param clock told whenever the call is given a thread, or sent back to the queue
+   */
+  private <T> CompletableFuture<T> execute(IOCallable<T> callable, RunClock clock) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    SauceCircuitBreaker breaker = breaker();
+    if (breaker.isOpen()) {
+      // fail before queueing so that a page view does not wait behind calls which will also fail
+      future.completeExceptionally(new SauceCircuitBreaker.OpenException(breaker.getKey()));
+      return future;
+    }
+    admit(
+        new Task(
+            priority,
+            sauceREST == null ? null : sauceREST.getAccount(),
+            task -> {
+              clock.running();
+              try {
+                breaker.acquire();
+              } catch (SauceCircuitBreaker.OpenException e) {
+                future.completeExceptionally(e);
+                return;
+              }
+              long callStarted = System.nanoTime();
+              SauceCircuitBreaker.clearObserved();
+              try {
+                T result = callable.call();
+                if (priority == Priority.INTERACTIVE
+                    && TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - callStarted)
+                        > INTERACTIVE_TIMEOUT_MILLIS) {
+                  // the page views waiting for it timed out, count that once for the call
+                  breaker.onFailure();
+                } else {
+                  breaker.onSuccess();
+                }
+                future.complete(result);
+              } catch (SauceRateLimiter.RateLimitedException e) {
+                // Sauce did not get to answer, this says nothing about the data center
+                breaker.onIgnored();
+                if (task.retries++ < RateLimitInterceptor.MAX_RETRIES) {
+                  // run it again once the account has a token for every request it made
+                  task.permits = Math.max(1, SauceRateLimiter.getAdmittedRequests());
+                  clock.paused();
+                  admit(task);
+                } else {
+                  future.completeExceptionally(e);
+                }
+              } catch (Throwable t) {
+                // only connection errors, timeouts and server errors count against the breaker
+                breaker.onFailure(t);
+                future.completeExceptionally(t);
+              }
+            }));
+    return future;
+  }
+
+  /**
+   * Queues a task once its account has the tokens it needs, without holding a thread while it
+   * waits for them.
+   */
+  private static void admit(Task task) {
+    long waitNanos = SauceRateLimiter.tryAcquire(task.account, task.permits);
+    if (waitNanos > 0) {
+      SauceRateLimiter.throttled(waitNanos, !task.throttled);
+      task.throttled = true;
+      CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS).execute(() -> admit(task));
+      return;
+    }
+    executor.execute(task);
+  }
+
+  /**
+   * @param clock tells when the call is running
+   * @return a copy of the call's future for this caller, which times out if this facade serves a
+   *     page view
+   */
+  private <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future, RunClock clock) {
+    CompletableFuture<T> copy = future.copy();
+    if (priority == Priority.INTERACTIVE) {
+      // the deadline covers the call itself, not the time it waited for a thread or a token; the
+      // breaker only hears about the call once, from execute, however many callers gave up on it
+      clock.started.thenRun(() -> expireWhenOverdue(copy, clock));
+    }
+    return copy;
+  }
+
+  /**
+   * Times out a caller's copy once the call has been running for {@link
+   * #INTERACTIVE_TIMEOUT_MILLIS} since it last got a thread, checking again while it waits.
+   */
+  private static <T> void expireWhenOverdue(CompletableFuture<T> copy, RunClock clock) {
+    if (copy.isDone()) {
+      return;
+    }
+    long timeout = TimeUnit.MILLISECONDS.toNanos(INTERACTIVE_TIMEOUT_MILLIS);
+    boolean running = clock.isRunning();
+    long remaining = running ? clock.runningSince + timeout - System.nanoTime() : timeout;
+    if (remaining <= 0) {
+      copy.completeExceptionally(new TimeoutException());
+      return;
+    }
+    CompletableFuture.delayedExecutor(remaining, TimeUnit.NANOSECONDS)
+        .execute(() -> expireWhenOverdue(copy, clock));
+  }
+
+  private SauceCircuitBreaker breaker() {
+    return SauceCircuitBreaker.forKey(sauceREST == null ? null : sauceREST.getDataCenterName());
+  }
+
+  /**
+   * Waits for a Sauce REST call, unwrapping its failure.
+   *
+   * @param future the pending call
+   * @param <T> result type
+   * @return the result of the call
+   * @throws IOException the call failed, or the waiting thread was interrupted
+   */
+  public static <T> T await(CompletableFuture<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for Sauce REST call");
+    } catch (ExecutionException e) {
+      throw unwrap(e.getCause());
+    }
+  }
+
+  /**
+   * @param t failure of a Sauce REST call
+   * @return t as an {@link IOException}, runtime exceptions and errors are rethrown as is
+   */
+  static IOException unwrap(Throwable t) {
+    while (t instanceof CompletionException && t.getCause() != null) {
+      t = t.getCause();
+    }
+    if (t instanceof IOException) {
+      return (IOException) t;
+    }
+    if (t instanceof TimeoutException) {
+      return new SocketTimeoutException("Timed out waiting for Sauce REST call");
+    }
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    }
+    if (t instanceof Error) {
+      throw (Error) t;
+    }
+    return new IOException(t);
+  }
+
+  @FunctionalInterface
+  private interface IOCallable<T> {
+    T call() throws IOException;
+  }
+
+  /** A read-only call shared by identical lookups. */
+  private static final class Flight<T> {
+    private final CompletableFuture<T> result = new CompletableFuture<>();
+    private final RunClock clock = new RunClock();
+  }
+
+  /** When a call last got a thread, so that its deadline only covers the time it runs. */
+  private static final class RunClock {
+    /** Completed when the call first gets a thread. */
+    private final CompletableFuture<Void> started = new CompletableFuture<>();
+
+    private volatile boolean running;
+    private volatile long runningSince;
+
+    void running() {
+      runningSince = System.nanoTime();
+      running = true;
+      started.complete(null);
+    }
+
+    void paused() {
+      running = false;
+    }
+
+    boolean isRunning() {
+      return running;
+    }
+  }
+
+  /** Identifies a read-only call: the client instance, the operation and its parameters. */
+  private static final class FlightKey {
+    private final JenkinsSauceREST client;
+    private final String operation;
+    private final Object parameters;
+
+    FlightKey(JenkinsSauceREST client, String operation, Object parameters) {
+      this.client = client;
+      this.operation = operation;
+      this.parameters = parameters;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof FlightKey)) return false;
+      FlightKey that = (FlightKey) o;
+      // clients are compared by identity, two clients for the same account may still differ in
+      // their server URL
+      return client == that.client
+          && operation.equals(that.operation)
+          && Objects.equals(parameters, that.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(client), operation, parameters);
+    }
+  }
+
+  /** Queued call, ordered by priority and then by submission. */
+  private static final class Task implements Runnable, Comparable<Task> {
+    private final Priority priority;
+    private final String account;
+    private final long order = sequence.getAndIncrement();
+    private final Consumer<Task> body;
+    private int permits = 1;
+    private int retries;
+    private boolean throttled;
+
+    Task(Priority priority, String account, Consumer<Task> body) {
+      this.priority = priority;
+      this.account = account;
+      this.body = body;
+    }
+
+    @Override
+    public void run() {
+      SauceRateLimiter.runAdmitted(permits, () -> body.accept(this));
+    }
+
+    @Override
+    public int compareTo(Task o) {
+      int result = priority.compareTo(o.priority);
+      return result != 0 ? result : Long.compare(order, o.order);
+    }
+  }
+}
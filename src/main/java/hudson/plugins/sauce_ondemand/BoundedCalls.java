@@ -0,0 +1,42 @@
+package hudson.plugins.sauce_ondemand;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/** Runs a Sauce REST call per item with a bounded number of calls in flight. */
+final class BoundedCalls {
+
+  private BoundedCalls() {}
+
+  /**
+   * Starts a call for each item, waiting for the oldest call to finish whenever {@code window}
+   * calls are in flight.
+   *
+   * @param items items to call for, in order
+   * @param window most calls in flight at once
+   * @param call starts the call for an item, failures should be handled by the returned future
+   * @return results, in item order
+   * @throws IOException a call failed, or the thread was interrupted while waiting
+   */
+  static <T, R> List<R> run(
+      Iterable<T> items, int window, Function<? super T, CompletableFuture<R>> call)
+      throws IOException {
+    List<R> results = new ArrayList<R>();
+    Deque<CompletableFuture<R>> inFlight = new ArrayDeque<CompletableFuture<R>>();
+    for (T item : items) {
+      if (inFlight.size() >= Math.max(1, window)) {
+        results.add(AsyncSauceREST.await(inFlight.removeFirst()));
+      }
+      inFlight.addLast(call.apply(item));
+    }
+    while (!inFlight.isEmpty()) {
+      results.add(AsyncSauceREST.await(inFlight.removeFirst()));
+    }
+    return results;
+  }
+}
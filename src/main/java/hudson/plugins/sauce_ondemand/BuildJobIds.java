@@ -0,0 +1,81 @@
+package hudson.plugins.sauce_ondemand;
+
+import com.saucelabs.saucerest.model.builds.JobInBuild;
+import com.saucelabs.saucerest.model.builds.JobsInBuild;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ids of the jobs in a Sauce build.
+ *
+ * <p>The jobs-for-build lookup is reduced to the list of distinct ids straight away, so the full
+ * {@link JobsInBuild} payload is not kept while job details are being fetched. This is not paged
+ * or streamed: {@code LookupJobsParameters} only filters by job state and has no offset, limit or
+ * cursor, so every id arrives in a single response and memory grows with the size of the build.
+ * Sauce may also cut that response short, {@link #isComplete} tells whether it listed every job
+ * Sauce reports for the build.
+ */
+final class BuildJobIds {
+
+  private static final Logger logger = Logger.getLogger(BuildJobIds.class.getName());
+
+  private final AsyncSauceREST async;
+  private final String buildId;
+  private List<String> ids;
+
+  BuildJobIds(AsyncSauceREST async, String buildId) {
+    this.async = async;
+    this.buildId = buildId;
+  }
+
+  /**
+   * Looks up the jobs of the build, if that has not happened yet.
+   *
+   * @return distinct job ids, in the order Sauce returned them
+   * @throws IOException the lookup failed
+   */
+  List<String> fetch() throws IOException {
+    if (ids == null) {
+      JobsInBuild jobsInBuild = AsyncSauceREST.await(async.lookupJobsForBuild(buildId));
+      if (jobsInBuild == null || jobsInBuild.jobs == null || jobsInBuild.jobs.isEmpty()) {
+        logger.log(Level.WARNING, "Build without jobs id=`" + buildId + "`");
+        ids = new ArrayList<>();
+      } else {
+        Set<String> distinct = new LinkedHashSet<>();
+        for (JobInBuild jobInBuild : jobsInBuild.jobs) {
+          distinct.add(jobInBuild.id);
+        }
+        ids = new ArrayList<>(distinct);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Checks the number of ids retrieved against what Sauce reports for the build.
+   *
+   * @param buildInformation the build, as returned by the builds lookup
+   * @return false if Sauce reported more finished jobs than ids were retrieved
+   */
+  boolean isComplete(JenkinsBuildInformation buildInformation) throws IOException {
+    int retrieved = fetch().size();
+    int expected = buildInformation.getJobsFinished();
+    if (retrieved < expected) {
+      logger.warning(
+          "Only retrieved "
+              + retrieved
+              + " of at least "
+              + expected
+              + " jobs for build id=`"
+              + buildId
+              + "`");
+      return false;
+    }
+    return true;
+  }
+}
@@ -1,20 +1,84 @@
 package hudson.plugins.sauce_ondemand;
 
 import com.saucelabs.ci.JobInformation;
+import com.saucelabs.saucerest.model.jobs.Job;
 import edu.umd.cs.findbugs.annotations.Nullable;
 import java.net.URISyntaxException;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 import org.apache.http.client.utils.URIBuilder;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
 @ExportedBean
 public class JenkinsJobInformation extends JobInformation {
+    /**
+     * Lifecycle states, lower cased, of jobs which have finished on Sauce and will not change any
+     * more. These come from the job's {@code status} field, not from its pass/fail verdict, which
+     * is what {@link #getStatus()} holds and which is often never set.
+     */
+    private static final Set<String> TERMINAL_STATES = new HashSet<>(Arrays.asList(
+        "complete", "error"));
+
+    /**
+     * The job's lifecycle state on Sauce ("in progress", "complete", "error"), null until
+     * populated.
+     */
+    private String lifecycleStatus;
+
+    /**
+     * The job's end time on Sauce, null while it is running or until populated.
+     */
+    private String lifecycleEndTime;
+
+    /**
+     * Authenticated urls, rebuilt only when the underlying url or the hmac changes.
+     */
+    private transient volatile AuthUrl logUrl;
+    private transient volatile AuthUrl videoUrl;
+
     public JenkinsJobInformation(String jobId, String hmac) {
         super(jobId, hmac);
     }
 
+    @Override
+    public void populate(Job job) {
+        super.populate(job);
+        lifecycleStatus = job.status;
+        lifecycleEndTime = Objects.toString(job.endTime, null);
+    }
+
+    /**
+     * @return whether the job has finished, so its details do not need to be fetched again
+     */
+    public boolean isTerminal() {
+        if (lifecycleStatus != null
+            && TERMINAL_STATES.contains(lifecycleStatus.toLowerCase(Locale.ENGLISH))) {
+            return true;
+        }
+        return lifecycleEndTime != null && !"0".equals(lifecycleEndTime);
+    }
+
+    /**
+     * @return the job's lifecycle state on Sauce, null until populated
+     */
+    @Nullable
+    public String getLifecycleStatus() {
+        return lifecycleStatus;
+    }
+
+    /**
+     * @return the job's end time on Sauce, null while it is running or until populated
+     */
+    @Nullable
+    public String getLifecycleEndTime() {
+        return lifecycleEndTime;
+    }
+
     @Exported(visibility=2)
     public String getResult() {
        return Objects.equals("true", getStatus()) ? "OK" : "FAILURE";
@@ -23,27 +87,41 @@ public class JenkinsJobInformation extends JobInformation {
     @Override
     @Exported(visibility=2)
     public String getLogUrl() {
+        String base = super.getLogUrl();
+        String hmac = this.getHmac();
+        AuthUrl cached = logUrl;
+        if (cached != null && cached.matches(base, hmac)) {
+            return cached.url;
+        }
         try {
-            URIBuilder uriBuilder = new URIBuilder(super.getLogUrl());
-            uriBuilder.addParameter("auth", this.getHmac());
-            return uriBuilder.toString();
+            URIBuilder uriBuilder = new URIBuilder(base);
+            uriBuilder.addParameter("auth", hmac);
+            logUrl = new AuthUrl(base, hmac, uriBuilder.toString());
+            return logUrl.url;
         } catch (URISyntaxException e) {
             e.printStackTrace();
         }
-        return super.getLogUrl();
+        return base;
     }
 
     @Override
     @Exported(visibility=2)
     public String getVideoUrl() {
+        String base = super.getVideoUrl();
+        String hmac = this.getHmac();
+        AuthUrl cached = videoUrl;
+        if (cached != null && cached.matches(base, hmac)) {
+            return cached.url;
+        }
         try {
-            URIBuilder uriBuilder = new URIBuilder(super.getVideoUrl().replace(".flv",".mp4"));
-            uriBuilder.addParameter("auth", this.getHmac());
-            return uriBuilder.toString();
+            URIBuilder uriBuilder = new URIBuilder(base.replace(".flv",".mp4"));
+            uriBuilder.addParameter("auth", hmac);
+            videoUrl = new AuthUrl(base, hmac, uriBuilder.toString());
+            return videoUrl.url;
         } catch (URISyntaxException e) {
             e.printStackTrace();
         }
-        return super.getVideoUrl();
+        return base;
     }
 
     @Override
@@ -146,4 +224,20 @@ public class JenkinsJobInformation extends JobInformation {
 
         return prettyDuration.toString().trim();
     }
+
+    private static final class AuthUrl {
+        private final String base;
+        private final String hmac;
+        private final String url;
+
+        AuthUrl(String base, String hmac, String url) {
+            this.base = base;
+            this.hmac = hmac;
+            this.url = url;
+        }
+
+        boolean matches(String base, String hmac) {
+            return Objects.equals(this.base, base) && Objects.equals(this.hmac, hmac);
+        }
+    }
 }
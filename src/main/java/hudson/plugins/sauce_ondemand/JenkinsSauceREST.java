@@ -2,17 +2,31 @@ package hudson.plugins.sauce_ondemand;
 
 import com.saucelabs.saucerest.DataCenter;
 import com.saucelabs.saucerest.SauceREST;
+import com.saucelabs.saucerest.api.AccountsEndpoint;
+import com.saucelabs.saucerest.api.BuildsEndpoint;
 import com.saucelabs.saucerest.api.HttpClientConfig;
+import com.saucelabs.saucerest.api.JobsEndpoint;
+import com.saucelabs.saucerest.api.SauceConnectEndpoint;
 import hudson.ProxyConfiguration;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.URL;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Objects;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import jenkins.model.Jenkins;
 import okhttp3.Authenticator;
+import okhttp3.Cache;
+import okhttp3.ConnectionPool;
 import okhttp3.Credentials;
 import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.Route;
@@ -27,13 +41,41 @@ public class JenkinsSauceREST extends SauceREST {
 
   protected static final String userAgent =
       "Jenkins/" + Jenkins.VERSION + " " + "JenkinsSauceOnDemand/" + BuildUtils.getCurrentVersion();
+  private static final Logger logger = Logger.getLogger(JenkinsSauceREST.class.getName());
+
   private String server = getSauceRestUrlFromEnv();
+  private final String dataCenterName;
+
+  // Endpoints are built lazily and reused so that a client handed out by SauceRESTRegistry keeps a
+  // single set of HTTP connections warm
+  private volatile JobsEndpoint jobsEndpoint;
+  private volatile BuildsEndpoint buildsEndpoint;
+  private volatile AccountsEndpoint accountsEndpoint;
+  private volatile SauceConnectEndpoint sauceConnectEndpoint;
+
+  // shared by the HTTP clients of every endpoint, so that close() can release their connections
+  private final ConnectionPool connectionPool;
 
   public JenkinsSauceREST(String username, String accessKey, DataCenter dataCenter, ProxyConfiguration proxy) {
-    super(username, accessKey, dataCenter, getJenkinsPluginHttpConfig(dataCenter, proxy));
+    this(username, accessKey, dataCenter, proxy, new ConnectionPool());
+  }
+
+  private JenkinsSauceREST(
+      String username,
+      String accessKey,
+      DataCenter dataCenter,
+      ProxyConfiguration proxy,
+      ConnectionPool connectionPool) {
+    super(
+        username,
+        accessKey,
+        dataCenter,
+        getJenkinsPluginHttpConfig(username, dataCenter, proxy).connectionPool(connectionPool));
     if (server == null) {
       server = dataCenter.server();
     }
+    this.dataCenterName = dataCenter.name();
+    this.connectionPool = connectionPool;
   }
 
   private static String getSauceRestUrlFromEnv() {
@@ -44,7 +86,8 @@ public class JenkinsSauceREST extends SauceREST {
     return srUrl;
   }
 
-  private static HttpClientConfig getJenkinsPluginHttpConfig(DataCenter dataCenter, ProxyConfiguration proxyConfig) {
+  private static HttpClientConfig getJenkinsPluginHttpConfig(
+      String username, DataCenter dataCenter, ProxyConfiguration proxyConfig) {
     String server = getSauceRestUrlFromEnv();
     if (server == null) {
       server = dataCenter.server();
@@ -64,8 +107,9 @@ public class JenkinsSauceREST extends SauceREST {
       }
     }
     UserAgentInterceptor ua = new UserAgentInterceptor(userAgent);
+    RateLimitInterceptor rateLimit = new RateLimitInterceptor(username, ua);
 
-    return HttpClientConfig.defaultConfig().proxy(proxy).authenticator(auth).interceptor(ua);
+    return HttpClientConfig.defaultConfig().proxy(proxy).authenticator(auth).interceptor(rateLimit);
   }
 
   protected static URL buildURL(String server) {
@@ -86,6 +130,122 @@ public class JenkinsSauceREST extends SauceREST {
     }
   }
 
+  /** @return Sauce username of this client, used to key its rate limit */
+  public String getAccount() {
+    return username;
+  }
+
+  /**
+   * Closes the idle connections of this client, shuts down the executor of each endpoint's HTTP
+   * client and closes its cache, if it has one. Calls still running keep their connection, which is
+   * closed once it has been idle for the pool's keep alive.
+   */
+  public void close() {
+    connectionPool.evictAll();
+    Set<OkHttpClient> clients = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Object endpoint :
+        new Object[] {jobsEndpoint, buildsEndpoint, accountsEndpoint, sauceConnectEndpoint}) {
+      OkHttpClient client = endpoint != null ? httpClientOf(endpoint) : null;
+      if (client != null) {
+        clients.add(client);
+      }
+    }
+    for (OkHttpClient client : clients) {
+      client.dispatcher().executorService().shutdown();
+      Cache cache = client.cache();
+      if (cache != null) {
+        try {
+          cache.close();
+        } catch (IOException e) {
+          logger.log(Level.FINE, "Unable to close the HTTP cache of a Sauce REST client", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * The endpoints do not expose the OkHttp client they are built with, so it is looked up by type.
+   *
+   * @return the HTTP client of the endpoint, null if it could not be found
+   */
+  private static OkHttpClient httpClientOf(Object endpoint) {
+    for (Class<?> c = endpoint.getClass(); c != null; c = c.getSuperclass()) {
+      for (Field f : c.getDeclaredFields()) {
+        if (f.getType() == OkHttpClient.class && !Modifier.isStatic(f.getModifiers())) {
+          try {
+            f.setAccessible(true);
+            return (OkHttpClient) f.get(endpoint);
+          } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.log(Level.FINE, "Unable to reach the HTTP client of " + c.getName(), e);
+            return null;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  /** @return name of the data center this client talks to, used to key its circuit breaker */
+  public String getDataCenterName() {
+    return dataCenterName;
+  }
+
+  @Override
+  public JobsEndpoint getJobsEndpoint() {
+    JobsEndpoint endpoint = jobsEndpoint;
+    if (endpoint == null) {
+      synchronized (this) {
+        if (jobsEndpoint == null) {
+          jobsEndpoint = super.getJobsEndpoint();
+        }
+        endpoint = jobsEndpoint;
+      }
+    }
+    return endpoint;
+  }
+
+  @Override
+  public BuildsEndpoint getBuildsEndpoint() {
+    BuildsEndpoint endpoint = buildsEndpoint;
+    if (endpoint == null) {
+      synchronized (this) {
+        if (buildsEndpoint == null) {
+          buildsEndpoint = super.getBuildsEndpoint();
+        }
+        endpoint = buildsEndpoint;
+      }
+    }
+    return endpoint;
+  }
+
+  @Override
+  public AccountsEndpoint getAccountsEndpoint() {
+    AccountsEndpoint endpoint = accountsEndpoint;
+    if (endpoint == null) {
+      synchronized (this) {
+        if (accountsEndpoint == null) {
+          accountsEndpoint = super.getAccountsEndpoint();
+        }
+        endpoint = accountsEndpoint;
+      }
+    }
+    return endpoint;
+  }
+
+  @Override
+  public SauceConnectEndpoint getSauceConnectEndpoint() {
+    SauceConnectEndpoint endpoint = sauceConnectEndpoint;
+    if (endpoint == null) {
+      synchronized (this) {
+        if (sauceConnectEndpoint == null) {
+          sauceConnectEndpoint = super.getSauceConnectEndpoint();
+        }
+        endpoint = sauceConnectEndpoint;
+      }
+    }
+    return endpoint;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (!(obj instanceof JenkinsSauceREST)) {
@@ -136,3 +296,49 @@ class UserAgentInterceptor implements Interceptor {
     return chain.proceed(requestWithUserAgent);
   }
 }
+
+/**
+ * Takes a token from {@link SauceRateLimiter} before each request and retries requests rejected with
+ * 429 once the server's {@code Retry-After} has passed. Requests made by calls running on the
+ * {@link AsyncSauceREST} threads never wait here, they fail with {@link
+ * SauceRateLimiter.RateLimitedException} and the whole call is queued again. The status of each
+ * response is also handed to {@link SauceCircuitBreaker#observe}, so that a failed call can be told
+ * apart as a client or a server error.
+ */
+class RateLimitInterceptor implements Interceptor {
+
+  static final int MAX_RETRIES = 3;
+
+  private final String account;
+  private final Interceptor delegate;
+
+  RateLimitInterceptor(String account, Interceptor delegate) {
+    this.account = account;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    boolean admitted = SauceRateLimiter.isAdmitted();
+    for (int attempt = 0; ; attempt++) {
+      if (admitted) {
+        // never sleep on the shared AsyncSauceREST threads, the call is queued again instead
+        SauceRateLimiter.acquireAdmitted(account);
+      } else {
+        SauceRateLimiter.acquire(account);
+      }
+      Response response = delegate.intercept(chain);
+      SauceRateLimiter.observe(account, response);
+      SauceCircuitBreaker.observe(response.code());
+      if (response.code() != 429 || attempt >= MAX_RETRIES) {
+        return response;
+      }
+      if (admitted) {
+        response.close();
+        throw new SauceRateLimiter.RateLimitedException(account);
+      }
+      // the bucket is now paused until Retry-After, so the next acquire waits for it
+      response.close();
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package hudson.plugins.sauce_ondemand;
+
+import com.saucelabs.saucerest.model.jobs.Job;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Job details downloaded while publishing the results of one build, so each job is fetched from
+ * Sauce at most once per publish. Only successful responses are kept; the cache is dropped with
+ * the publish, so details never outlive the build step which read them.
+ */
+final class JobDetailsCache {
+
+  private final AsyncSauceREST jobs;
+  private final Map<String, Job> details = new ConcurrentHashMap<String, Job>();
+
+  JobDetailsCache(AsyncSauceREST jobs) {
+    this.jobs = jobs;
+  }
+
+  /** Remembers details fetched elsewhere, such as in a job details slice. */
+  void put(Job job) {
+    if (job != null && job.id != null) {
+      details.put(job.id, job);
+    }
+  }
+
+  /**
+   * @param jobId Sauce job id
+   * @return the cached details, null if they were not downloaded
+   */
+  Job getIfPresent(String jobId) {
+    return details.get(jobId);
+  }
+
+  /**
+   * @param jobId Sauce job id
+   * @return the cached details, or a request for them which fills the cache when it succeeds
+   */
+  CompletableFuture<Job> getJobDetails(String jobId) {
+    Job job = details.get(jobId);
+    if (job != null) {
+      return CompletableFuture.completedFuture(job);
+    }
+    return jobs.getJobDetails(jobId)
+        .thenApply(
+            fetched -> {
+              put(fetched);
+              return fetched;
+            });
+  }
+}
@@ -0,0 +1,118 @@
+package hudson.plugins.sauce_ondemand;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits, once the build steps are done, for a build's Sauce jobs to stop changing.
+ *
+ * <p>The jobs are looked at through one {@link SauceOnDemandBuildAction}, so each look only fetches
+ * the details of jobs which are new or still running. Looks are spaced {@link
+ * #INITIAL_DELAY_MILLIS} apart, doubling while nothing changes and starting over whenever new jobs
+ * appear. The jobs have settled once neither the set of jobs nor their end times on Sauce have
+ * changed for {@link #QUIET_MILLIS}; the wait never lasts longer than the given maximum. End times
+ * come from the jobs' lifecycle on Sauce, not from their pass/fail verdict, which the publisher
+ * only sets after the wrapper is done.
+ */
+final class JobSettleDetector {
+
+  /** First wait between two looks at the jobs. */
+  static final long INITIAL_DELAY_MILLIS = 250;
+
+  /** How long the jobs have to stay the same to count as settled. */
+  static final long QUIET_MILLIS = 2000;
+
+  /** Called when new jobs appear while waiting, to stop or update them. */
+  interface NewJobsHandler {
+    void onNewJobs(SauceOnDemandBuildAction action) throws IOException, InterruptedException;
+  }
+
+  private final SauceOnDemandBuildAction action;
+  private final long maxWaitMillis;
+
+  private long settleMillis;
+  private boolean settled;
+  private int refreshes;
+
+  /**
+   * @param action action whose jobs are watched, its jobs are refreshed while waiting
+   * @param maxWaitMillis longest time to wait
+   */
+  JobSettleDetector(SauceOnDemandBuildAction action, long maxWaitMillis) {
+    this.action = action;
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  /**
+   * @param handler called each time new jobs appear
+   * @return number of jobs once settled, or once the maximum wait ran out
+   */
+  int settle(NewJobsHandler handler) throws IOException, InterruptedException {
+    long started = System.nanoTime();
+    long deadline = started + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    List<JenkinsJobInformation> jobs = action.getJobs();
+    Map<String, String> endTimes = endTimes(jobs);
+    long lastChange = started;
+    long delay = INITIAL_DELAY_MILLIS;
+
+    while (true) {
+      long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remaining <= 0) {
+        break;
+      }
+      Thread.sleep(Math.min(delay, remaining));
+      jobs = action.getJobs(true);
+      refreshes++;
+      long now = System.nanoTime();
+      if (action.isStale()) {
+        // nothing is known about this look, try again later
+        delay *= 2;
+        continue;
+      }
+      Map<String, String> nowEndTimes = endTimes(jobs);
+      if (!endTimes.keySet().containsAll(nowEndTimes.keySet())) {
+        handler.onNewJobs(action);
+        lastChange = now;
+        delay = INITIAL_DELAY_MILLIS;
+      } else if (!nowEndTimes.equals(endTimes)) {
+        lastChange = now;
+        delay *= 2;
+      } else if (TimeUnit.NANOSECONDS.toMillis(now - lastChange) >= QUIET_MILLIS) {
+        settled = true;
+        break;
+      } else {
+        delay *= 2;
+      }
+      endTimes = nowEndTimes;
+    }
+    settleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    return jobs.size();
+  }
+
+  /** @return end time of each job, by job id, null for jobs still running */
+  private static Map<String, String> endTimes(List<JenkinsJobInformation> jobs) {
+    Map<String, String> endTimes = new HashMap<String, String>();
+    for (JenkinsJobInformation job : jobs) {
+      endTimes.put(job.getJobId(), job.getLifecycleEndTime());
+    }
+    return endTimes;
+  }
+
+  /** @return how long {@link #settle} waited */
+  long getSettleMillis() {
+    return settleMillis;
+  }
+
+  /** @return false if the jobs were still changing when the maximum wait ran out */
+  boolean isSettled() {
+    return settled;
+  }
+
+  /** @return number of times the jobs were fetched again */
+  int getRefreshes() {
+    return refreshes;
+  }
+}
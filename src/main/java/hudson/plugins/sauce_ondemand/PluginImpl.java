@@ -56,6 +56,16 @@ public class PluginImpl extends Plugin implements Describable<PluginImpl> {
   static final BrowserFactory BROWSER_FACTORY =
       BrowserFactory.getInstance(new JenkinsSauceREST(null, null, DataCenter.US_WEST, null));
   private static final Logger logger = Logger.getLogger(PluginImpl.class.getName());
+
+  /** Number of job details requests made at the same time for one build unless configured. */
+  public static final int DEFAULT_JOB_DETAILS_PARALLELISM = 4;
+
+  /** Number of test suites scanned for session ids at the same time unless configured. */
+  public static final int DEFAULT_SESSION_ID_SCAN_PARALLELISM =
+      Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+  /** Seconds the build wrapper waits for a build's Sauce jobs to settle unless configured. */
+  public static final int DEFAULT_JOB_SETTLE_TIMEOUT = 30;
   /** Username to access Sauce OnDemand. */
   @Deprecated private transient String username;
 
@@ -87,6 +97,14 @@ public class PluginImpl extends Plugin implements Describable<PluginImpl> {
 
   private String credentialId;
 
+  private String restConcurrency;
+
+  private String jobDetailsParallelism;
+
+  private String sessionIdScanParallelism;
+
+  private String jobSettleTimeout;
+
   public static PluginImpl get() {
     Jenkins j = Jenkins.getInstance();
     if (j == null) {
@@ -145,6 +163,7 @@ public class PluginImpl extends Plugin implements Describable<PluginImpl> {
         "hudson.plugins.sauce_ondemand.SauceOnDemandBuildWrapper", SauceOnDemandBuildWrapper.class);
 
     load();
+    AsyncSauceREST.setConcurrency(getRestConcurrencyLimit());
   }
 
   @Override
@@ -157,6 +176,10 @@ public class PluginImpl extends Plugin implements Describable<PluginImpl> {
     setDisableUsageStats(formData.getBoolean("disableUsageStats"));
     sauceConnectMaxRetries = formData.getString("sauceConnectMaxRetries");
     sauceConnectRetryWaitTime = formData.getString("sauceConnectRetryWaitTime");
+    setRestConcurrency(formData.getString("restConcurrency"));
+    jobDetailsParallelism = formData.getString("jobDetailsParallelism");
+    sessionIdScanParallelism = formData.getString("sessionIdScanParallelism");
+    jobSettleTimeout = formData.getString("jobSettleTimeout");
     save();
   }
 
@@ -200,6 +223,72 @@ public class PluginImpl extends Plugin implements Describable<PluginImpl> {
     this.sauceConnectRetryWaitTime = sauceConnectRetryWaitTime;
   }
 
+  public String getRestConcurrency() {
+    return restConcurrency;
+  }
+
+  public void setRestConcurrency(String restConcurrency) {
+    this.restConcurrency = restConcurrency;
+    AsyncSauceREST.setConcurrency(getRestConcurrencyLimit());
+  }
+
+  /**
+   * @return maximum number of Sauce REST calls the plugin runs at the same time
+   */
+  public int getRestConcurrencyLimit() {
+    return parsePositiveInt(restConcurrency, AsyncSauceREST.DEFAULT_CONCURRENCY);
+  }
+
+  public String getJobDetailsParallelism() {
+    return jobDetailsParallelism;
+  }
+
+  public void setJobDetailsParallelism(String jobDetailsParallelism) {
+    this.jobDetailsParallelism = jobDetailsParallelism;
+  }
+
+  /**
+   * @return maximum number of job details requests made at the same time while loading one build
+   */
+  public int getJobDetailsParallelismLimit() {
+    return parsePositiveInt(jobDetailsParallelism, DEFAULT_JOB_DETAILS_PARALLELISM);
+  }
+
+  public String getSessionIdScanParallelism() {
+    return sessionIdScanParallelism;
+  }
+
+  public void setSessionIdScanParallelism(String sessionIdScanParallelism) {
+    this.sessionIdScanParallelism = sessionIdScanParallelism;
+  }
+
+  /** @return number of test suites the publisher scans for session ids at the same time */
+  public int getSessionIdScanParallelismLimit() {
+    return parsePositiveInt(sessionIdScanParallelism, DEFAULT_SESSION_ID_SCAN_PARALLELISM);
+  }
+
+  public String getJobSettleTimeout() {
+    return jobSettleTimeout;
+  }
+
+  public void setJobSettleTimeout(String jobSettleTimeout) {
+    this.jobSettleTimeout = jobSettleTimeout;
+  }
+
+  /** @return longest time, in seconds, the build wrapper waits for Sauce jobs to settle */
+  public int getJobSettleTimeoutLimit() {
+    return parsePositiveInt(jobSettleTimeout, DEFAULT_JOB_SETTLE_TIMEOUT);
+  }
+
+  static int parsePositiveInt(String value, int defaultValue) {
+    try {
+      int parsed = Integer.parseInt(value.trim());
+      return parsed > 0 ? parsed : defaultValue;
+    } catch (NullPointerException | NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
   @Deprecated
   public String getUsername() {
     return username;
@@ -0,0 +1,116 @@
+package hudson.plugins.sauce_ondemand;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable summary of a Sauce build shown in the "Sauce Labs statistics" box.
+ *
+ * <p>Computed once from the build and job information, and stored on the {@link
+ * SauceOnDemandBuildAction} so that rendering it does not call Sauce or walk the job list.
+ */
+public final class SauceAnalytics implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String start;
+  private final String duration;
+  private final String efficiency;
+  private final String size;
+  private final String pass;
+  private final String fail;
+  private final String error;
+
+  private transient volatile Map<String, String> map;
+
+  private SauceAnalytics(
+      String start,
+      String duration,
+      String efficiency,
+      String size,
+      String pass,
+      String fail,
+      String error) {
+    this.start = start;
+    this.duration = duration;
+    this.efficiency = efficiency;
+    this.size = size;
+    this.pass = pass;
+    this.fail = fail;
+    this.error = error;
+  }
+
+  /**
+   * @param buildInformation the Sauce build
+   * @param jobs the jobs of the build
+   * @return the analytics of the build
+   */
+  public static SauceAnalytics of(
+      JenkinsBuildInformation buildInformation, List<JenkinsJobInformation> jobs) {
+    long maxJobDuration = 0;
+    long totalJobDuration = 0;
+    for (JenkinsJobInformation job : jobs) {
+      long jobDuration = job.getDuration();
+      totalJobDuration += jobDuration;
+      if (jobDuration > maxJobDuration) {
+        maxJobDuration = jobDuration;
+      }
+    }
+    return new SauceAnalytics(
+        buildInformation.getStartDate(),
+        buildInformation.getPrettyDuration(),
+        buildInformation.getEfficiency(maxJobDuration, totalJobDuration),
+        String.valueOf(buildInformation.getJobsFinished()),
+        buildInformation.getJobsPassRate(),
+        buildInformation.getJobsFailRate(),
+        buildInformation.getJobsErrorRate());
+  }
+
+  /** @return the analytics keyed the way the statistics views expect */
+  public Map<String, String> toMap() {
+    Map<String, String> result = map;
+    if (result == null) {
+      Map<String, String> analytics = new LinkedHashMap<String, String>();
+      analytics.put("start", start);
+      analytics.put("duration", duration);
+      analytics.put("efficiency", efficiency);
+      analytics.put("size", size);
+      analytics.put("pass", pass);
+      analytics.put("fail", fail);
+      analytics.put("error", error);
+      result = map = Collections.unmodifiableMap(analytics);
+    }
+    return result;
+  }
+
+  public String getStart() {
+    return start;
+  }
+
+  public String getDuration() {
+    return duration;
+  }
+
+  public String getEfficiency() {
+    return efficiency;
+  }
+
+  public String getSize() {
+    return size;
+  }
+
+  public String getPass() {
+    return pass;
+  }
+
+  public String getFail() {
+    return fail;
+  }
+
+  public String getError() {
+    return error;
+  }
+}
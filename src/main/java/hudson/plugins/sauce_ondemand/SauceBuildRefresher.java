@@ -0,0 +1,219 @@
+package hudson.plugins.sauce_ondemand;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * Keeps the Sauce data of recently active builds up to date in the background, so that build and
+ * project pages only read what the {@link SauceOnDemandBuildAction} already holds.
+ *
+ * <p>Builds are tracked by their externalizable id when their action is attached to a running
+ * build or shown on a page, and the action is looked up again for each refresh, so tracking never
+ * keeps a build in memory. A build whose action has nothing loaded yet is refreshed straight away;
+ * otherwise it is refreshed every {@link #TICK_MILLIS} while any of its jobs is still running.
+ * Refreshes which find nothing left to do back off up to {@link #MAX_INTERVAL_MILLIS}, and a build
+ * stops being tracked once it is over and every job has finished, or once nobody has looked at it
+ * for {@link #IDLE_MILLIS}. Up to {@link #CONCURRENCY} builds are refreshed at the same time.
+ */
+@Extension
+public class SauceBuildRefresher extends AsyncPeriodicWork {
+
+  private static final Logger logger = Logger.getLogger(SauceBuildRefresher.class.getName());
+
+  /** How often the refresher looks for builds which are due, and the shortest refresh interval. */
+  static final long TICK_MILLIS =
+      TimeUnit.SECONDS.toMillis(
+          SystemProperties.getLong(SauceBuildRefresher.class.getName() + ".tickSeconds", 15L));
+
+  /** Longest interval between refreshes of a build which is still tracked. */
+  static final long MAX_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+  /** Finished builds which have not been viewed for this long are dropped. */
+  static final long IDLE_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+  /** Most builds refreshed at the same time. */
+  static final int CONCURRENCY =
+      SystemProperties.getInteger(SauceBuildRefresher.class.getName() + ".concurrency", 4);
+
+  private static final ThreadPoolExecutor executor =
+      new ThreadPoolExecutor(
+          CONCURRENCY,
+          CONCURRENCY,
+          60L,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          new NamingThreadFactory(new DaemonThreadFactory(), "SauceBuildRefresher"));
+
+  static {
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Tracked builds, by externalizable id. */
+  private static final ConcurrentMap<String, Entry> tracked = new ConcurrentHashMap<>();
+
+  private static volatile long lastCycleMillis;
+  private static volatile int lastBacklog;
+  private static volatile long cycles;
+  private static final AtomicLong refreshes = new AtomicLong();
+
+  public SauceBuildRefresher() {
+    super("Sauce build refresher");
+  }
+
+  @Override
+  public long getRecurrencePeriod() {
+    return TICK_MILLIS;
+  }
+
+  /**
+   * Marks the build of an action as active, so that it is refreshed in the background.
+   *
+   * @param action the action which was attached or viewed
+   */
+  public static void track(SauceOnDemandBuildAction action) {
+    Run<?, ?> build = action.getBuild();
+    if (build == null) {
+      return;
+    }
+    String runId = build.getExternalizableId();
+    Entry entry = tracked.computeIfAbsent(runId, k -> new Entry());
+    entry.lastActive = System.currentTimeMillis();
+    if (!action.isLoaded()) {
+      // the page shows nothing until the first refresh, do not wait for the next tick
+      executor.execute(() -> refresh(runId, entry, System.currentTimeMillis()));
+    }
+  }
+
+  @Override
+  protected void execute(TaskListener listener) {
+    long started = System.nanoTime();
+    long now = System.currentTimeMillis();
+    List<Map.Entry<String, Entry>> due = new ArrayList<>();
+    for (Map.Entry<String, Entry> e : tracked.entrySet()) {
+      if (e.getValue().nextRefresh <= now) {
+        due.add(e);
+      }
+    }
+    lastBacklog = due.size();
+
+    try {
+      BoundedCalls.run(
+          due,
+          CONCURRENCY,
+          e -> CompletableFuture.runAsync(() -> refresh(e.getKey(), e.getValue(), now), executor));
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Interrupted while refreshing Sauce builds", e);
+    }
+
+    lastCycleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    cycles++;
+  }
+
+  private static void refresh(String runId, Entry entry, long now) {
+    if (!entry.running.compareAndSet(false, true)) {
+      // already being refreshed
+      return;
+    }
+    try {
+      SauceOnDemandBuildAction action = resolve(runId);
+      if (action == null) {
+        tracked.remove(runId);
+        return;
+      }
+      refresh(runId, action, entry, now);
+    } catch (Throwable t) {
+      // never let one build stop the others from being refreshed
+      logger.log(Level.WARNING, "Unable to refresh Sauce data for " + runId, t);
+      entry.backOff(now);
+    } finally {
+      entry.running.set(false);
+    }
+  }
+
+  private static void refresh(
+      String runId, SauceOnDemandBuildAction action, Entry entry, long now) {
+    boolean building = action.getBuild().isBuilding();
+    if (!building && now - entry.lastActive > IDLE_MILLIS) {
+      tracked.remove(runId);
+      return;
+    }
+    action.refreshFromSauce();
+    refreshes.incrementAndGet();
+    if (action.isStale()) {
+      entry.backOff(now);
+    } else if (!action.hasOnlyTerminalJobs()) {
+      entry.interval = TICK_MILLIS;
+      entry.nextRefresh = now + TICK_MILLIS;
+    } else if (!building) {
+      logger.fine("All Sauce jobs finished for " + runId + ", no longer refreshing");
+      tracked.remove(runId);
+      action.saveBuild();
+    } else {
+      // the build may still start more jobs
+      entry.backOff(now);
+    }
+  }
+
+  /** @return the action of the build, null if the build or its action no longer exist */
+  private static SauceOnDemandBuildAction resolve(String runId) {
+    try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+      Run<?, ?> run = Run.fromExternalizableId(runId);
+      return run != null ? run.getAction(SauceOnDemandBuildAction.class) : null;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  public static int getTrackedCount() {
+    return tracked.size();
+  }
+
+  public static long getLastCycleMillis() {
+    return lastCycleMillis;
+  }
+
+  public static int getLastBacklog() {
+    return lastBacklog;
+  }
+
+  public static long getCycles() {
+    return cycles;
+  }
+
+  public static long getRefreshes() {
+    return refreshes.get();
+  }
+
+  private static final class Entry {
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile long lastActive;
+    private volatile long interval = TICK_MILLIS;
+    private volatile long nextRefresh;
+
+    void backOff(long now) {
+      interval = Math.min(MAX_INTERVAL_MILLIS, interval * 2);
+      nextRefresh = now + interval;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package hudson.plugins.sauce_ondemand;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * Circuit breaker guarding the Sauce REST API of one data center.
+ *
+ * <p>Only failures which say the data center is in trouble count: calls which got no answer
+ * (connection errors and timeouts) and calls answered with a 5xx status. Client errors such as a
+ * bad access key or a deleted job are ignored, so one account cannot open the breaker for every
+ * other account on the data center.
+ *
+ * <p>After {@link #FAILURE_THRESHOLD} consecutive failures the breaker opens and
+ * calls fail immediately with {@link OpenException} instead of waiting for Sauce. Once {@link
+ * #OPEN_MILLIS} have passed a single probe call is let through; if it succeeds the breaker closes
+ * again, otherwise it stays open for another period.
+ */
+public final class SauceCircuitBreaker {
+
+  private static final Logger logger = Logger.getLogger(SauceCircuitBreaker.class.getName());
+
+  static final String DEFAULT_KEY = "default";
+
+  /** Consecutive failures which open the breaker. */
+  static final int FAILURE_THRESHOLD =
+      SystemProperties.getInteger(SauceCircuitBreaker.class.getName() + ".failureThreshold", 5);
+
+  /** How long the breaker stays open before a probe is allowed. */
+  static final long OPEN_MILLIS =
+      TimeUnit.SECONDS.toMillis(
+          SystemProperties.getLong(SauceCircuitBreaker.class.getName() + ".openSeconds", 30L));
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  /** Thrown instead of calling Sauce while the breaker is open. */
+  public static class OpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public OpenException(String key) {
+      super("Sauce REST API for " + key + " is unavailable, not calling it until it recovers");
+    }
+  }
+
+  private static final ConcurrentMap<String, SauceCircuitBreaker> breakers =
+      new ConcurrentHashMap<>();
+
+  /** HTTP status of the last response received by the current thread, 0 if none. */
+  private static final ThreadLocal<int[]> lastStatus = ThreadLocal.withInitial(() -> new int[1]);
+
+  private final String key;
+  private State state = State.CLOSED;
+  private int failures;
+  private long openedAt;
+  private boolean probing;
+
+  SauceCircuitBreaker(String key) {
+    this.key = key;
+  }
+
+  /**
+   * @param key data center name, may be null
+   * @return the breaker for the data center
+   */
+  public static SauceCircuitBreaker forKey(String key) {
+    return breakers.computeIfAbsent(key == null ? DEFAULT_KEY : key, SauceCircuitBreaker::new);
+  }
+
+  /** @return state of every breaker which has seen traffic */
+  public static Map<String, State> getStates() {
+    Map<String, State> states = new TreeMap<>();
+    for (SauceCircuitBreaker breaker : breakers.values()) {
+      states.put(breaker.key, breaker.getState());
+    }
+    return states;
+  }
+
+  static void reset() {
+    breakers.clear();
+  }
+
+  /**
+   * Reserves the right to call Sauce.
+   *
+   * @throws OpenException the breaker is open, or a probe is already in flight
+   */
+  public synchronized void acquire() throws OpenException {
+    if (state == State.OPEN && System.currentTimeMillis() - openedAt >= OPEN_MILLIS) {
+      state = State.HALF_OPEN;
+      probing = false;
+    }
+    if (state == State.OPEN || (state == State.HALF_OPEN && probing)) {
+      throw new OpenException(key);
+    }
+    if (state == State.HALF_OPEN) {
+      probing = true;
+    }
+  }
+
+  /** @return true if a call would currently be rejected */
+  public synchronized boolean isOpen() {
+    return state == State.OPEN && System.currentTimeMillis() - openedAt < OPEN_MILLIS;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  public synchronized void onSuccess() {
+    if (state != State.CLOSED) {
+      logger.info("Sauce REST API for " + key + " recovered, closing circuit breaker");
+    }
+    state = State.CLOSED;
+    failures = 0;
+    probing = false;
+  }
+
+  public synchronized void onFailure() {
+    failures++;
+    if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= FAILURE_THRESHOLD)) {
+      logger.warning(
+          "Sauce REST API for " + key + " failed " + failures + " times, opening circuit breaker");
+      state = State.OPEN;
+      openedAt = System.currentTimeMillis();
+    }
+    probing = false;
+  }
+
+  /**
+   * Releases a call which neither proved nor disproved that Sauce is available, such as one
+   * rejected for bad credentials.
+   */
+  public synchronized void onIgnored() {
+    probing = false;
+  }
+
+  /**
+   * Records the status of a response received by the current thread, called for every response.
+   *
+   * @param status HTTP status code
+   */
+  static void observe(int status) {
+    lastStatus.get()[0] = status;
+  }
+
+  /** Forgets the last response of the current thread, called before each call. */
+  static void clearObserved() {
+    lastStatus.get()[0] = 0;
+  }
+
+  /**
+   * Reports a failed call made on the current thread, counting it only if Sauce did not answer or
+   * answered with a server error.
+   *
+   * @param t failure of the call
+   */
+  public void onFailure(Throwable t) {
+    int status = lastStatus.get()[0];
+    if (status >= 500 || (status == 0 && t instanceof IOException)) {
+      onFailure();
+    } else {
+      // a client error, or a failure on our side after Sauce answered
+      onIgnored();
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package hudson.plugins.sauce_ondemand;
+
+import hudson.Extension;
+import hudson.model.ManagementLink;
+import hudson.plugins.sauce_ondemand.credentials.CredentialsLookupCache;
+import java.util.Map;
+
+/** Administrator page showing how the plugin's Sauce REST traffic is being scheduled. */
+@Extension
+public class SauceDiagnostics extends ManagementLink {
+
+  @Override
+  public String getIconFileName() {
+    return "icon-sauce-ondemand-credential";
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Sauce Labs Diagnostics";
+  }
+
+  @Override
+  public String getDescription() {
+    return "Sauce REST request queue, rate limiting, data center availability and background refreshes.";
+  }
+
+  @Override
+  public String getUrlName() {
+    return "sauce-diagnostics";
+  }
+
+  @Override
+  public Category getCategory() {
+    return Category.STATUS;
+  }
+
+  public int getConcurrency() {
+    return AsyncSauceREST.getConcurrency();
+  }
+
+  public int getActiveRequests() {
+    return AsyncSauceREST.getActiveCount();
+  }
+
+  public int getInteractiveQueueDepth() {
+    return AsyncSauceREST.getQueueDepth(AsyncSauceREST.Priority.INTERACTIVE);
+  }
+
+  public int getBackgroundQueueDepth() {
+    return AsyncSauceREST.getQueueDepth(AsyncSauceREST.Priority.BACKGROUND);
+  }
+
+  public long getCoalescedCalls() {
+    return AsyncSauceREST.getCoalescedCalls();
+  }
+
+  public long getExecutedCalls() {
+    return AsyncSauceREST.getExecutedCalls();
+  }
+
+  public long getThrottledMillis() {
+    return SauceRateLimiter.getThrottledMillis();
+  }
+
+  public long getThrottledRequests() {
+    return SauceRateLimiter.getThrottledRequests();
+  }
+
+  public long getRateLimitedResponses() {
+    return SauceRateLimiter.getRateLimitedResponses();
+  }
+
+  public Map<String, Long> getPausedAccounts() {
+    return SauceRateLimiter.getPausedAccounts();
+  }
+
+  public int getRefresherTracked() {
+    return SauceBuildRefresher.getTrackedCount();
+  }
+
+  public int getRefresherBacklog() {
+    return SauceBuildRefresher.getLastBacklog();
+  }
+
+  public long getRefresherCycleMillis() {
+    return SauceBuildRefresher.getLastCycleMillis();
+  }
+
+  public long getRefresherCycles() {
+    return SauceBuildRefresher.getCycles();
+  }
+
+  public long getRefresherRefreshes() {
+    return SauceBuildRefresher.getRefreshes();
+  }
+
+  public long getCredentialsLookupHits() {
+    return CredentialsLookupCache.getHits();
+  }
+
+  public long getCredentialsLookupMisses() {
+    return CredentialsLookupCache.getMisses();
+  }
+
+  public long getCredentialsLookupSavedMillis() {
+    return CredentialsLookupCache.getSavedMillis();
+  }
+
+  public SauceJobOutbox getJobOutbox() {
+    return SauceJobOutbox.get();
+  }
+
+  public Map<String, SauceCircuitBreaker.State> getCircuitBreakers() {
+    return SauceCircuitBreaker.getStates();
+  }
+}
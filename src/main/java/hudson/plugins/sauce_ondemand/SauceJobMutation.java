@@ -0,0 +1,180 @@
+package hudson.plugins.sauce_ondemand;
+
+import com.saucelabs.saucerest.JobVisibility;
+import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
+import hudson.Util;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A change to one Sauce job waiting in the {@link SauceJobOutbox}. Only the fields which are set
+ * are sent; custom data is added to what the job already has when {@code preserveCustomData} is
+ * set. The custom data the job had when the change was queued is kept with it, when known, so it
+ * does not have to be downloaded again to send the change. Mutations are written to disk with
+ * XStream, so fields are plain values.
+ */
+final class SauceJobMutation {
+
+  /** Externalizable id of the Jenkins build the job belongs to. */
+  private final String runId;
+
+  private final String credentialsId;
+  private final String jobId;
+  private Boolean passed;
+  private String name;
+  private String build;
+  private String visibility;
+  private Map<String, String> customData;
+  private boolean preserveCustomData;
+
+  /** Custom data the job had on Sauce when the mutation was queued, null if not known. */
+  private Map<String, String> existingCustomData;
+
+  /** Order the mutation was queued in, later mutations of a job win. */
+  private long sequence;
+
+  private int attempts;
+  private long nextAttempt;
+
+  SauceJobMutation(String runId, String credentialsId, String jobId) {
+    this.runId = runId;
+    this.credentialsId = credentialsId;
+    this.jobId = jobId;
+  }
+
+  SauceJobMutation setPassed(Boolean passed) {
+    this.passed = passed;
+    return this;
+  }
+
+  SauceJobMutation setName(String name) {
+    this.name = name;
+    return this;
+  }
+
+  SauceJobMutation setBuild(String build) {
+    this.build = build;
+    return this;
+  }
+
+  SauceJobMutation setVisibility(String visibility) {
+    this.visibility = visibility;
+    return this;
+  }
+
+  SauceJobMutation addCustomData(Map<String, String> customData, boolean preserveExisting) {
+    if (this.customData == null) {
+      this.customData = new HashMap<String, String>();
+    }
+    if (customData != null) {
+      this.customData.putAll(customData);
+    }
+    this.preserveCustomData |= preserveExisting;
+    return this;
+  }
+
+  /**
+   * @param existingCustomData custom data the job has on Sauce, null if not known
+   */
+  SauceJobMutation setExistingCustomData(Map<String, String> existingCustomData) {
+    this.existingCustomData =
+        existingCustomData != null ? new HashMap<String, String>(existingCustomData) : null;
+    return this;
+  }
+
+  String getRunId() {
+    return runId;
+  }
+
+  String getCredentialsId() {
+    return credentialsId;
+  }
+
+  String getJobId() {
+    return jobId;
+  }
+
+  boolean isPreserveCustomData() {
+    return preserveCustomData;
+  }
+
+  Map<String, String> getExistingCustomData() {
+    return existingCustomData;
+  }
+
+  long getSequence() {
+    return sequence;
+  }
+
+  void setSequence(long sequence) {
+    this.sequence = sequence;
+  }
+
+  int getAttempts() {
+    return attempts;
+  }
+
+  long getNextAttempt() {
+    return nextAttempt;
+  }
+
+  void retryAt(long nextAttempt) {
+    this.attempts++;
+    this.nextAttempt = nextAttempt;
+  }
+
+  /**
+   * Identifies what the mutation changes, so queueing the same change twice is a no-op. What the
+   * job had before is not part of the change.
+   *
+   * @return hex digest of the build, credentials, job and payload
+   */
+  String getKey() {
+    return Util.getDigestOf(
+        runId
+            + "\n"
+            + credentialsId
+            + "\n"
+            + jobId
+            + "\n"
+            + passed
+            + "\n"
+            + name
+            + "\n"
+            + build
+            + "\n"
+            + visibility
+            + "\n"
+            + (customData != null ? new TreeMap<String, String>(customData) : null)
+            + "\n"
+            + preserveCustomData);
+  }
+
+  /**
+   * Adds this mutation's fields to those of the mutations queued before it.
+   *
+   * @param builder update for the job
+   * @param merged custom data of the mutations so far, added to
+   * @return true if the mutation carries custom data
+   */
+  boolean applyTo(UpdateJobParameter.Builder builder, Map<String, String> merged) {
+    if (passed != null) {
+      builder.setPassed(passed);
+    }
+    if (name != null) {
+      builder.setName(name);
+    }
+    if (build != null) {
+      builder.setBuild(build);
+    }
+    if (visibility != null) {
+      builder.setVisibility(JobVisibility.valueOf(visibility));
+    }
+    if (customData == null) {
+      return false;
+    }
+    merged.putAll(customData);
+    return true;
+  }
+}
@@ -0,0 +1,533 @@
+package hudson.plugins.sauce_ondemand;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+
+/**
+ * Applies changes to Sauce jobs in the background, so that builds do not wait on Sauce to record
+ * their results.
+ *
+ * <p>Each queued {@link SauceJobMutation} is written to {@code sauce-ondemand-outbox} under
+ * JENKINS_HOME before {@link #enqueue} returns, and deleted once Sauce has accepted it, so
+ * mutations which were pending when the controller stopped are sent after it starts again. A
+ * mutation is keyed by what it changes, so queueing the same change again while it is pending, or
+ * within {@link #APPLIED_TTL_MILLIS} of Sauce accepting it, does nothing. Every {@link
+ * #DRAIN_MILLIS} each job with a mutation which is due gets all of its pending mutations merged in
+ * the order they were queued, and sent as one update, with a bounded number of jobs in flight.
+ * Failed updates are retried with exponential backoff up to {@link #MAX_ATTEMPTS} times.
+ *
+ * <p>Custom data is sent on top of the custom data the outbox itself sent to the job last, so a
+ * change which is retried late never takes back data sent by a newer one. Where existing custom
+ * data has to be kept, what the job had when the change was queued is used, and only downloaded
+ * again when it was not known then.
+ *
+ * <p>The custom data sent to each job is written to {@code applied} next to the pending mutations
+ * and read back after a restart, so a mutation replayed then is still sent on top of what newer
+ * changes sent before the restart, rather than on top of the custom data known when it was queued.
+ * Which changes were accepted is only remembered in memory, after a restart a change queued again
+ * is sent again.
+ */
+@Extension
+public class SauceJobOutbox extends AsyncPeriodicWork {
+
+  private static final Logger logger = Logger.getLogger(SauceJobOutbox.class.getName());
+
+  /** How often pending mutations are sent. */
+  static final long DRAIN_MILLIS =
+      TimeUnit.SECONDS.toMillis(
+          SystemProperties.getLong(SauceJobOutbox.class.getName() + ".drainSeconds", 5L));
+
+  /** Most jobs updated in one drain, the rest wait for the next one. */
+  static final int BATCH_SIZE =
+      SystemProperties.getInteger(SauceJobOutbox.class.getName() + ".batchSize", 200);
+
+  /** Attempts after which a mutation is dropped. */
+  static final int MAX_ATTEMPTS =
+      SystemProperties.getInteger(SauceJobOutbox.class.getName() + ".maxAttempts", 10);
+
+  /** Longest wait between two attempts of a mutation. */
+  static final long MAX_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+  /** How long an accepted change is remembered, so sending it again is skipped. */
+  static final long APPLIED_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  /** Where mutations are kept, null for {@code sauce-ondemand-outbox} under JENKINS_HOME. */
+  private final File directory;
+
+  private final ConcurrentMap<String, SauceJobMutation> pending = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private volatile boolean loaded;
+
+  /** Keys of the mutations Sauce accepted recently, in memory only so lost on restart. */
+  private final Cache<String, Boolean> appliedKeys =
+      CacheBuilder.newBuilder()
+          .maximumSize(10000)
+          .expireAfterWrite(APPLIED_TTL_MILLIS, TimeUnit.MILLISECONDS)
+          .build();
+
+  /** Custom data last sent to each job, by job id, also kept on disk until it expires. */
+  private final Cache<String, Map<String, String>> appliedCustomData =
+      CacheBuilder.newBuilder()
+          .maximumSize(10000)
+          .expireAfterWrite(APPLIED_TTL_MILLIS, TimeUnit.MILLISECONDS)
+          .removalListener(
+              (RemovalListener<String, Map<String, String>>)
+                  n -> {
+                    if (n.wasEvicted()) {
+                      delete(appliedFile(n.getKey()).getFile());
+                    }
+                  })
+          .build();
+
+  private final AtomicLong applied = new AtomicLong();
+  private final AtomicLong retried = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong avoided = new AtomicLong();
+
+  public SauceJobOutbox() {
+    this(null);
+  }
+
+  SauceJobOutbox(File directory) {
+    super("Sauce job outbox");
+    this.directory = directory;
+  }
+
+  /** @return the registered outbox */
+  public static SauceJobOutbox get() {
+    return ExtensionList.lookupSingleton(SauceJobOutbox.class);
+  }
+
+  @Override
+  public long getRecurrencePeriod() {
+    return DRAIN_MILLIS;
+  }
+
+  /**
+   * Queues a mutation and writes it to disk.
+   *
+   * @param mutation change to send
+   * @return false if the same change was already pending or recently applied
+   * @throws IOException the mutation could not be written
+   */
+  boolean enqueue(SauceJobMutation mutation) throws IOException {
+    load();
+    String key = mutation.getKey();
+    if (pending.containsKey(key) || appliedKeys.getIfPresent(key) != null) {
+      avoided.incrementAndGet();
+      return false;
+    }
+    mutation.setSequence(nextSequence());
+    file(key).write(mutation);
+    return pending.putIfAbsent(key, mutation) == null;
+  }
+
+  @Override
+  protected void execute(TaskListener listener) {
+    load();
+    for (Map<String, JobUpdate> updates : dueUpdates(System.currentTimeMillis()).values()) {
+      try {
+        drain(updates.values());
+      } catch (Throwable t) {
+        // never let one build stop the others from being updated
+        logger.log(Level.WARNING, "Unable to update Sauce jobs", t);
+        for (JobUpdate update : updates.values()) {
+          failed(update, System.currentTimeMillis());
+        }
+      }
+    }
+  }
+
+  /**
+   * @param now current time
+   * @return updates of the jobs with a mutation which is due, by the build and credentials they are
+   *     sent with
+   */
+  Map<String, Map<String, JobUpdate>> dueUpdates(long now) {
+    load();
+    List<Map.Entry<String, SauceJobMutation>> queued = new ArrayList<>(pending.entrySet());
+    Set<String> dueJobs = new HashSet<>();
+    for (Map.Entry<String, SauceJobMutation> e : queued) {
+      if (e.getValue().getNextAttempt() <= now) {
+        dueJobs.add(jobKey(e.getValue()));
+      }
+    }
+    if (dueJobs.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    queued.sort(Comparator.comparingLong(e -> e.getValue().getSequence()));
+
+    // one update per job with every change queued for it, so an older change waiting for a retry
+    // is never sent after a newer one; jobs are grouped by the build and credentials they are sent
+    // with
+    Map<String, Map<String, JobUpdate>> byAccount = new LinkedHashMap<>();
+    int jobs = 0;
+    for (Map.Entry<String, SauceJobMutation> e : queued) {
+      SauceJobMutation mutation = e.getValue();
+      if (!dueJobs.contains(jobKey(mutation))) {
+        continue;
+      }
+      Map<String, JobUpdate> updates =
+          byAccount.computeIfAbsent(
+              mutation.getRunId() + "\n" + mutation.getCredentialsId(),
+              k -> new LinkedHashMap<>());
+      JobUpdate update = updates.get(mutation.getJobId());
+      if (update == null) {
+        if (jobs >= BATCH_SIZE) {
+          continue;
+        }
+        update = new JobUpdate(mutation.getJobId());
+        updates.put(mutation.getJobId(), update);
+        jobs++;
+      }
+      update.add(e.getKey(), mutation);
+    }
+    return byAccount;
+  }
+
+  private void drain(Collection<JobUpdate> updates) throws IOException {
+    SauceJobMutation first = updates.iterator().next().mutations.get(0);
+    Run<?, ?> run = resolve(first.getRunId());
+    if (run == null) {
+      logger.warning(
+          "Dropping Sauce job updates for " + first.getRunId() + ", the build no longer exists");
+      for (JobUpdate update : updates) {
+        dropped.addAndGet(update.keys.size());
+        remove(update);
+      }
+      return;
+    }
+    AsyncSauceREST jobs =
+        new AsyncSauceREST(
+            new SauceOnDemandBuildAction(run, first.getCredentialsId()).getSauceREST(),
+            AsyncSauceREST.Priority.BACKGROUND);
+    PluginImpl plugin = PluginImpl.get();
+    int window =
+        plugin != null
+            ? plugin.getJobDetailsParallelismLimit()
+            : PluginImpl.DEFAULT_JOB_DETAILS_PARALLELISM;
+
+    List<JobUpdate> batch = new ArrayList<>(updates);
+    List<Boolean> results =
+        BoundedCalls.run(
+            batch,
+            window,
+            update -> update.send(jobs, getAppliedCustomData(update.jobId)));
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < batch.size(); i++) {
+      if (results.get(i)) {
+        accepted(batch.get(i));
+      } else {
+        failed(batch.get(i), now);
+      }
+    }
+  }
+
+  /** Records an update Sauce accepted and removes its mutations. */
+  void accepted(JobUpdate update) {
+    applied.addAndGet(update.keys.size());
+    for (String key : update.keys) {
+      appliedKeys.put(key, Boolean.TRUE);
+    }
+    if (update.sentCustomData != null) {
+      appliedCustomData.put(update.jobId, update.sentCustomData);
+      try {
+        appliedFile(update.jobId)
+            .write(
+                new AppliedCustomData(
+                    update.jobId, update.sentCustomData, System.currentTimeMillis()));
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to save custom data sent to " + update.jobId, e);
+      }
+    }
+    remove(update);
+  }
+
+  /**
+   * @param jobId Sauce job id
+   * @return custom data the outbox sent to the job last, null if none
+   */
+  Map<String, String> getAppliedCustomData(String jobId) {
+    load();
+    return appliedCustomData.getIfPresent(jobId);
+  }
+
+  private void failed(JobUpdate update, long now) {
+    for (int i = 0; i < update.keys.size(); i++) {
+      String key = update.keys.get(i);
+      SauceJobMutation mutation = update.mutations.get(i);
+      if (mutation.getAttempts() + 1 >= MAX_ATTEMPTS) {
+        logger.warning(
+            "Giving up updating Sauce job "
+                + mutation.getJobId()
+                + " after "
+                + MAX_ATTEMPTS
+                + " attempts");
+        dropped.incrementAndGet();
+        remove(key);
+        continue;
+      }
+      long backoff =
+          Math.min(MAX_RETRY_MILLIS, DRAIN_MILLIS << Math.min(20, mutation.getAttempts()));
+      mutation.retryAt(now + backoff);
+      retried.incrementAndGet();
+      try {
+        file(key).write(mutation);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Unable to save Sauce job update for " + mutation.getJobId(), e);
+      }
+    }
+  }
+
+  private void remove(JobUpdate update) {
+    for (String key : update.keys) {
+      remove(key);
+    }
+  }
+
+  private void remove(String key) {
+    pending.remove(key);
+    delete(file(key).getFile());
+  }
+
+  private static void delete(File file) {
+    if (file.exists() && !file.delete()) {
+      logger.warning("Unable to delete " + file);
+    }
+  }
+
+  private static String jobKey(SauceJobMutation mutation) {
+    return mutation.getRunId() + "\n" + mutation.getCredentialsId() + "\n" + mutation.getJobId();
+  }
+
+  private static Run<?, ?> resolve(String runId) {
+    try {
+      return Run.fromExternalizableId(runId);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /** Reads the mutations left on disk by an earlier run of the controller, once. */
+  private void load() {
+    if (loaded) {
+      return;
+    }
+    synchronized (this) {
+      if (loaded) {
+        return;
+      }
+      File[] files = getDirectory().listFiles((dir, name) -> name.endsWith(".xml"));
+      long last = 0;
+      if (files != null) {
+        for (File f : files) {
+          try {
+            SauceJobMutation mutation = (SauceJobMutation) new XmlFile(f).read();
+            String key = f.getName().substring(0, f.getName().length() - ".xml".length());
+            pending.put(key, mutation);
+            last = Math.max(last, mutation.getSequence());
+          } catch (IOException | ClassCastException e) {
+            logger.log(Level.WARNING, "Ignoring unreadable Sauce job update " + f, e);
+          }
+        }
+      }
+      if (!pending.isEmpty()) {
+        logger.info("Resuming " + pending.size() + " pending Sauce job updates");
+      }
+      File[] sent = getAppliedDirectory().listFiles((dir, name) -> name.endsWith(".xml"));
+      if (sent != null) {
+        long now = System.currentTimeMillis();
+        for (File f : sent) {
+          try {
+            AppliedCustomData data = (AppliedCustomData) new XmlFile(f).read();
+            if (data.time + APPLIED_TTL_MILLIS > now) {
+              appliedCustomData.put(data.jobId, data.customData);
+              continue;
+            }
+          } catch (IOException | ClassCastException e) {
+            logger.log(Level.WARNING, "Ignoring unreadable Sauce custom data " + f, e);
+          }
+          delete(f);
+        }
+      }
+      sequence.accumulateAndGet(last, Math::max);
+      loaded = true;
+    }
+  }
+
+  private long nextSequence() {
+    long now = System.currentTimeMillis();
+    return sequence.updateAndGet(last -> Math.max(last + 1, now));
+  }
+
+  private XmlFile file(String key) {
+    return new XmlFile(new File(getDirectory(), key + ".xml"));
+  }
+
+  private XmlFile appliedFile(String jobId) {
+    return new XmlFile(new File(getAppliedDirectory(), Util.getDigestOf(jobId) + ".xml"));
+  }
+
+  private File getAppliedDirectory() {
+    return new File(getDirectory(), "applied");
+  }
+
+  private File getDirectory() {
+    return directory != null
+        ? directory
+        : new File(Jenkins.get().getRootDir(), "sauce-ondemand-outbox");
+  }
+
+  /** @return number of mutations waiting to be sent */
+  public int getPendingCount() {
+    return pending.size();
+  }
+
+  /** @return number of mutations Sauce accepted */
+  public long getApplied() {
+    return applied.get();
+  }
+
+  /** @return number of failed attempts which were scheduled again */
+  public long getRetried() {
+    return retried.get();
+  }
+
+  /** @return number of changes not queued because they were pending or recently applied */
+  public long getAvoided() {
+    return avoided.get();
+  }
+
+  /** @return number of mutations given up on */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /** Custom data sent to one job, as kept on disk. */
+  static final class AppliedCustomData {
+    private final String jobId;
+    private final Map<String, String> customData;
+    private final long time;
+
+    AppliedCustomData(String jobId, Map<String, String> customData, long time) {
+      this.jobId = jobId;
+      this.customData = new HashMap<>(customData);
+      this.time = time;
+    }
+  }
+
+  /** The mutations of one job which are sent together. */
+  static final class JobUpdate {
+    private final String jobId;
+    private final List<String> keys = new ArrayList<>();
+    private final List<SauceJobMutation> mutations = new ArrayList<>();
+
+    /** Custom data Sauce was sent, set once the update was sent. */
+    private volatile Map<String, String> sentCustomData;
+
+    JobUpdate(String jobId) {
+      this.jobId = jobId;
+    }
+
+    void add(String key, SauceJobMutation mutation) {
+      keys.add(key);
+      mutations.add(mutation);
+    }
+
+    Map<String, String> getSentCustomData() {
+      return sentCustomData;
+    }
+
+    /**
+     * @param jobs client to send the update with
+     * @param applied custom data the outbox sent to the job last, null if none
+     * @return completes with whether Sauce accepted the update, never exceptionally
+     */
+    CompletableFuture<Boolean> send(AsyncSauceREST jobs, Map<String, String> applied) {
+      UpdateJobParameter.Builder builder = new UpdateJobParameter.Builder();
+      Map<String, String> queued = new HashMap<>();
+      boolean hasCustomData = false;
+      boolean preserve = false;
+      Map<String, String> existing = null;
+      for (SauceJobMutation mutation : mutations) {
+        hasCustomData |= mutation.applyTo(builder, queued);
+        preserve |= mutation.isPreserveCustomData();
+        if (mutation.getExistingCustomData() != null) {
+          existing = mutation.getExistingCustomData();
+        }
+      }
+
+      CompletableFuture<Map<String, String>> base;
+      if (!hasCustomData || !preserve) {
+        base = CompletableFuture.completedFuture(Collections.<String, String>emptyMap());
+      } else if (existing != null) {
+        // known when the change was queued
+        base = CompletableFuture.completedFuture(existing);
+      } else {
+        base =
+            jobs.getJobDetails(jobId)
+                .thenApply(
+                    job ->
+                        job.customData != null
+                            ? job.customData
+                            : Collections.<String, String>emptyMap());
+      }
+      boolean sendCustomData = hasCustomData;
+      return base.thenCompose(
+              existingCustomData -> {
+                Map<String, String> customData = null;
+                if (sendCustomData) {
+                  // what the job had, then what this outbox sent it, then the queued changes
+                  customData = new HashMap<>(existingCustomData);
+                  if (applied != null) {
+                    customData.putAll(applied);
+                  }
+                  customData.putAll(queued);
+                  builder.setCustomData(customData);
+                }
+                Map<String, String> sent = customData;
+                logger.fine("Performing Sauce REST update for " + jobId);
+                return jobs.updateJob(jobId, builder.build())
+                    .thenRun(() -> sentCustomData = sent);
+              })
+          .handle(
+              (v, e) -> {
+                if (e != null) {
+                  logger.warning("Unable to update job information for " + jobId + ": " + e);
+                  return false;
+                }
+                return true;
+              });
+    }
+  }
+}
@@ -2,14 +2,7 @@ package hudson.plugins.sauce_ondemand;
 
 import com.saucelabs.ci.JobInformation;
 import com.saucelabs.saucerest.DataCenter;
-import com.saucelabs.saucerest.JobSource;
-import com.saucelabs.saucerest.api.BuildsEndpoint;
-import com.saucelabs.saucerest.api.JobsEndpoint;
 import com.saucelabs.saucerest.model.builds.Build;
-import com.saucelabs.saucerest.model.builds.JobInBuild;
-import com.saucelabs.saucerest.model.builds.JobsInBuild;
-import com.saucelabs.saucerest.model.builds.LookupBuildsParameters;
-import com.saucelabs.saucerest.model.builds.LookupJobsParameters;
 import hudson.Util;
 import hudson.maven.MavenBuild;
 import hudson.maven.MavenModuleSetBuild;
@@ -21,15 +14,23 @@ import hudson.model.Run;
 import hudson.plugins.sauce_ondemand.credentials.SauceCredentials;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -38,7 +39,6 @@ import javax.servlet.ServletException;
 import jenkins.model.Jenkins;
 import jenkins.model.RunAction2;
 import jenkins.tasks.SimpleBuildStep;
-import jenkins.util.Timer;
 import org.json.JSONException;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
@@ -46,28 +46,6 @@ import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
-class StopJobThread implements Runnable {
-  private static final Logger logger = Logger.getLogger(SauceOnDemandBuildAction.class.getName());
-
-  private JobInformation job;
-  private JobsEndpoint jobs;
-
-  public StopJobThread(JenkinsSauceREST sauceREST, JobInformation job) {
-    this.job = job;
-    this.jobs = sauceREST.getJobsEndpoint();
-  }
-
-  @Override
-  public void run() {
-    try {
-      jobs.stopJob(job.getJobId());
-    } catch (IOException e) {
-      // Ignore stopped job
-      logger.log(Level.WARNING, "Failed to stop job " + job.getJobId() + ": " + e);
-    }
-  }
-}
-
 /**
  * Presents the links to the Sauce OnDemand jobs on the build summary page.
  *
@@ -85,12 +63,17 @@ public class SauceOnDemandBuildAction extends AbstractAction
 
   private static final long serialVersionUID = 1L;
 
+  /** Job details slice size, shared by all builds since it tracks how Sauce is responding. */
+  private static final AdaptiveSliceSize JOB_DETAILS_SLICE_SIZE = new AdaptiveSliceSize();
+
   /** Logger instance. */
   private static final Logger logger = Logger.getLogger(SauceOnDemandBuildAction.class.getName());
 
   private transient Run build;
-  private List<JenkinsJobInformation> jobInformation;
-  private JenkinsBuildInformation buildInformation;
+  // replaced as a whole by refreshes, which may run on the SauceBuildRefresher thread
+  private volatile List<JenkinsJobInformation> jobInformation;
+  private volatile JenkinsBuildInformation buildInformation;
+  private volatile SauceAnalytics analytics;
 
   @Deprecated private String accessKey;
   @Deprecated private String username;
@@ -99,6 +82,33 @@ public class SauceOnDemandBuildAction extends AbstractAction
 
   private String restEndpoint;
 
+  /** Set when the Sauce build could not be reloaded and the last known one is shown instead. */
+  private transient volatile boolean buildReloadFailed;
+
+  /**
+   * Set when the jobs could not be reloaded, or Sauce listed fewer jobs than it reported for the
+   * build, so the jobs shown may be incomplete.
+   */
+  private transient volatile boolean jobListingIncomplete;
+
+  /**
+   * Session ids seen in the console while the build was running, keyed by job id. Replaced rather
+   * than changed, so that saving the build never iterates over a map being added to.
+   */
+  private volatile Map<String, TestIDDetails> liveSessionIds;
+
+  /** Set when the whole console log went through a {@link SessionIdLogFilter}. */
+  private boolean consoleCaptured;
+
+  /** Ids of the jobs each test case was matched to when the results were published, by case id. */
+  private volatile Map<String, String[]> caseJobIds;
+
+  /** Sessions found in the output of test cases no job was matched to, by case id. */
+  private volatile Map<String, List<String[]>> caseOutputSessions;
+
+  /** Time the build wrapper waited for the jobs to settle, null if it did not wait. */
+  private Long jobSettleMillis;
+
   @DataBoundConstructor
   public SauceOnDemandBuildAction(Run build, String credentialsId) {
     this.credentialsId = credentialsId;
@@ -118,37 +128,19 @@ public class SauceOnDemandBuildAction extends AbstractAction
     logger.fine("Performing Sauce REST retrieve results for " + buildNumber);
 
     // A note on retry behaviour
-    // This code was previously set to retry 10 times with 10 seconds pause in between - this
-    // resulted in de-facto hang behaviour in Jenkins on the status pages of builds if an error
-    // occurred, which meant either that the page took over 100 seconds to load, or that the
-    // connection was killed by a downstream proxy (e.g. an ELB) which had a connection timeout
-    // below 100 seconds. It has been updated to retry one time with a 3 seconds pause to allow for
-    // recovery from brief blips while not stalling page load for more than a few seconds to ensure
-    // a good user experience.
-    int retries = 0;
-    int maxRetries = 1;
-    String jsonResponse = "";
-
-    while (retries < maxRetries && "".equals(jsonResponse)) {
-      try {
-        JenkinsBuildInformation buildInformation =
-            retrieveBuildInformationFromSauce(sauceREST, buildNumber);
-        if (!"".equals(buildInformation.getBuildId())) {
-          return buildInformation;
-        }
-      } catch (Exception e) {
-        jsonResponse = "";
-      }
+    // This code used to retry with a pause in between, which stalled build status pages whenever
+    // Sauce was slow or down. Failures are now handled by AsyncSauceREST: page views are bounded by
+    // a timeout and a per data center circuit breaker, and callers keep showing what they already
+    // had.
+    try {
+      return retrieveBuildInformationFromSauce(sauceREST, buildNumber);
+    } catch (Exception e) {
       logger.log(
           Level.WARNING,
           "Sauce REST API get build JSON Response was empty or threw an exception for "
               + buildNumber
-              + ", waiting and retrying");
-      retries++;
-      try {
-        Thread.sleep(3000);
-      } catch (InterruptedException e) {
-      }
+              + ": "
+              + e);
     }
 
     return new JenkinsBuildInformation("");
@@ -166,12 +158,8 @@ public class SauceOnDemandBuildAction extends AbstractAction
       JenkinsSauceREST sauceREST, String buildNumber) throws JSONException, IOException {
     logger.fine("Performing Sauce REST retrieve results for " + buildNumber);
 
-    BuildsEndpoint buildsEndpoint = sauceREST.getBuildsEndpoint();
-
-    LookupBuildsParameters parameters =
-        new LookupBuildsParameters.Builder().setName(buildNumber).setLimit(1).build();
-
-    List<Build> builds = buildsEndpoint.lookupBuilds(JobSource.VDC, parameters);
+    List<Build> builds =
+        AsyncSauceREST.await(new AsyncSauceREST(sauceREST).lookupBuilds(buildNumber, 1));
 
     if (builds == null || builds.isEmpty()) {
       logger.warning("Unable to find build for name: `" + buildNumber + "`");
@@ -220,6 +208,57 @@ public class SauceOnDemandBuildAction extends AbstractAction
   public static LinkedHashMap<String, JenkinsJobInformation> retrieveJobIdsFromSauce(
       JenkinsSauceREST sauceREST, Run build, SauceCredentials credentials)
       throws JSONException, IOException {
+    return retrieveJobIdsFromSauce(sauceREST, build, credentials, null);
+  }
+
+  /**
+   * Retrieves the jobs of a build, reusing the jobs from an earlier retrieval which have already
+   * finished. Only jobs which were still running, and jobs which were not known yet, are fetched
+   * again, so refreshing a completed build makes no job details requests.
+   *
+   * @param sauceREST Sauce Rest object/credentials to use
+   * @param build Which build this is requesting job ids from
+   * @param credentials credentials used to sign job links
+   * @param known jobs from an earlier retrieval, may be null
+   * @return job information keyed by job id, in the order Sauce lists the jobs
+   */
+  public static LinkedHashMap<String, JenkinsJobInformation> retrieveJobIdsFromSauce(
+      JenkinsSauceREST sauceREST,
+      Run build,
+      SauceCredentials credentials,
+      Collection<JenkinsJobInformation> known)
+      throws JSONException, IOException {
+    return retrieveJobIdsFromSauce(sauceREST, build, credentials, known, null);
+  }
+
+  /**
+   * As {@link #retrieveJobIdsFromSauce(JenkinsSauceREST, Run, SauceCredentials, Collection)},
+   * also keeping the details of every job fetched in {@code detailsCache}.
+   *
+   * @param detailsCache job details downloaded during the current publish, may be null
+   */
+  static LinkedHashMap<String, JenkinsJobInformation> retrieveJobIdsFromSauce(
+      JenkinsSauceREST sauceREST,
+      Run build,
+      SauceCredentials credentials,
+      Collection<JenkinsJobInformation> known,
+      JobDetailsCache detailsCache)
+      throws JSONException, IOException {
+    return retrieveJobIdsFromSauce(sauceREST, build, credentials, known, detailsCache, null);
+  }
+
+  /**
+   * @param complete set to false if Sauce listed fewer jobs than it reports as finished for the
+   *     build, in which case the known jobs it did not list are kept; may be null
+   */
+  private static LinkedHashMap<String, JenkinsJobInformation> retrieveJobIdsFromSauce(
+      JenkinsSauceREST sauceREST,
+      Run build,
+      SauceCredentials credentials,
+      Collection<JenkinsJobInformation> known,
+      JobDetailsCache detailsCache,
+      AtomicBoolean complete)
+      throws JSONException, IOException {
 
     // invoke Sauce Rest API to find plan results with those values
     LinkedHashMap<String, JenkinsJobInformation> jobInformation = new LinkedHashMap<>();
@@ -229,65 +268,156 @@ public class SauceOnDemandBuildAction extends AbstractAction
         SauceOnDemandBuildAction.retrieveBuildInformationFromSauce(sauceREST, buildNumber);
     String buildId = buildInformation.getBuildId();
     if ("".equals(buildId)) return jobInformation;
-    List<String> jobIds = SauceOnDemandBuildAction.getJobIdsForBuild(sauceREST, buildId);
+    BuildJobIds buildJobIds = new BuildJobIds(new AsyncSauceREST(sauceREST), buildId);
+    List<String> jobIds = buildJobIds.fetch();
+    boolean listedAll = buildJobIds.isComplete(buildInformation);
+    if (complete != null) {
+      complete.set(listedAll);
+    }
+
+    Map<String, JenkinsJobInformation> previous = new HashMap<String, JenkinsJobInformation>();
+    if (known != null) {
+      for (JenkinsJobInformation information : known) {
+        previous.put(information.getJobId(), information);
+      }
+    }
+    List<String> toFetch = jobIds;
+    if (!previous.isEmpty()) {
+      List<String> unfinished = new ArrayList<String>();
+      for (String jobId : jobIds) {
+        JenkinsJobInformation information = previous.get(jobId);
+        if (information == null || !information.isTerminal()) {
+          unfinished.add(jobId);
+        }
+      }
+      logger.fine(
+          "Refreshing "
+              + unfinished.size()
+              + " of "
+              + jobIds.size()
+              + " jobs for build id=`"
+              + buildId
+              + "`");
+      toFetch = unfinished;
+    }
     Map<String, JenkinsJobInformation> jobs =
-        SauceOnDemandBuildAction.getJobsInformation(sauceREST, credentials, jobIds);
+        SauceOnDemandBuildAction.getJobsInformation(
+            sauceREST, credentials, toFetch, detailsCache);
     for (String jobId : jobIds) {
       JenkinsJobInformation information = jobs.get(jobId);
+      if (information == null) {
+        // finished earlier, or missing from this refresh
+        information = previous.get(jobId);
+      }
       if (information != null) {
         jobInformation.put(jobId, information);
       }
     }
-    return jobInformation;
-  }
-
-  protected static List<String> getJobIdsForBuild(JenkinsSauceREST sauceREST, String buildId) {
-    List<String> jobIds = new ArrayList<String>();
-
-    LookupJobsParameters params = new LookupJobsParameters.Builder().build();
-
-    BuildsEndpoint buildsEndpoint = sauceREST.getBuildsEndpoint();
-    try {
-      JobsInBuild jobsInBuild = buildsEndpoint.lookupJobsForBuild(JobSource.VDC, buildId, params);
-
-      if (jobsInBuild == null || jobsInBuild.jobs.isEmpty()) {
-        logger.log(Level.WARNING, "Build without jobs id=`" + buildId + "`");
-        return jobIds;
-      }
-
-      for (JobInBuild jobInBuild : jobsInBuild.jobs) {
-        jobIds.add(jobInBuild.id);
+    if (!listedAll) {
+      // a short listing does not mean the other jobs are gone
+      for (Map.Entry<String, JenkinsJobInformation> e : previous.entrySet()) {
+        jobInformation.putIfAbsent(e.getKey(), e.getValue());
       }
-    } catch (IOException e) {
-      logger.log(Level.WARNING, "Failed to retrieve jobs for build " + buildId);
-      return jobIds;
     }
+    return jobInformation;
+  }
 
-    return jobIds;
+  protected static List<String> getJobIdsForBuild(JenkinsSauceREST sauceREST, String buildId)
+      throws IOException {
+    return new ArrayList<String>(
+        new BuildJobIds(new AsyncSauceREST(sauceREST), buildId).fetch());
   }
 
+  /**
+   * Fetches job details in slices, running up to {@link PluginImpl#getJobDetailsParallelismLimit()}
+   * slices at the same time. Slice sizes follow {@link AdaptiveSliceSize}; ids missing from a
+   * response are asked for once more in a later slice.
+   *
+   * @return job information keyed by job id
+   */
   protected static Map<String, JenkinsJobInformation> getJobsInformation(
       JenkinsSauceREST sauceREST, SauceCredentials credentials, Iterable<String> jobIds)
       throws JSONException, IOException {
-    Map<String, JenkinsJobInformation> jobs = new HashMap<String, JenkinsJobInformation>();
-    JobsEndpoint jobsEndpoint = sauceREST.getJobsEndpoint();
-
-    List<List<String>> slicedIds = SauceOnDemandBuildAction.slice(jobIds, 20);
+    return getJobsInformation(sauceREST, credentials, jobIds, null);
+  }
 
-    for (List<String> slice : slicedIds) {
-      List<com.saucelabs.saucerest.model.jobs.Job> jobResults = jobsEndpoint.getJobDetails(slice);
+  private static Map<String, JenkinsJobInformation> getJobsInformation(
+      JenkinsSauceREST sauceREST,
+      SauceCredentials credentials,
+      Iterable<String> jobIds,
+      JobDetailsCache detailsCache)
+      throws JSONException, IOException {
+    Map<String, JenkinsJobInformation> jobs = new LinkedHashMap<String, JenkinsJobInformation>();
+    AsyncSauceREST async = new AsyncSauceREST(sauceREST);
+
+    Iterator<String> pending = jobIds.iterator();
+    Deque<String> retries = new ArrayDeque<String>();
+    PluginImpl plugin = PluginImpl.get();
+    int parallelism =
+        plugin != null
+            ? plugin.getJobDetailsParallelismLimit()
+            : PluginImpl.DEFAULT_JOB_DETAILS_PARALLELISM;
+
+    Deque<JobDetailsSlice> inFlight = new ArrayDeque<JobDetailsSlice>();
+    while (pending.hasNext() || !retries.isEmpty() || !inFlight.isEmpty()) {
+      while ((pending.hasNext() || !retries.isEmpty()) && inFlight.size() < parallelism) {
+        // ids are only taken from the source as slices are sent
+        boolean retry = !pending.hasNext();
+        Iterator<String> source = retry ? retries.iterator() : pending;
+        int sliceSize = JOB_DETAILS_SLICE_SIZE.get();
+        List<String> slice = new ArrayList<String>(sliceSize);
+        while (slice.size() < sliceSize && source.hasNext()) {
+          slice.add(source.next());
+          if (retry) {
+            source.remove();
+          }
+        }
+        inFlight.add(new JobDetailsSlice(async, slice, retry));
+      }
 
-      for (com.saucelabs.saucerest.model.jobs.Job job : jobResults) {
+      JobDetailsSlice done = inFlight.removeFirst();
+      Set<String> missing = new LinkedHashSet<String>(done.ids);
+      for (com.saucelabs.saucerest.model.jobs.Job job : AsyncSauceREST.await(done.result)) {
         JenkinsJobInformation information =
             new JenkinsJobInformation(job.id, credentials.getHMAC(job.id));
         information.populate(job);
         jobs.put(information.getJobId(), information);
+        missing.remove(job.id);
+        if (detailsCache != null) {
+          detailsCache.put(job);
+        }
+      }
+      if (!done.retry) {
+        retries.addAll(missing);
       }
     }
 
     return jobs;
   }
 
+  /** A job details request for one slice of a build's job ids. */
+  private static final class JobDetailsSlice {
+    private final List<String> ids;
+    private final boolean retry;
+    private final CompletableFuture<List<com.saucelabs.saucerest.model.jobs.Job>> result;
+
+    JobDetailsSlice(AsyncSauceREST async, List<String> ids, boolean retry) {
+      this.ids = ids;
+      this.retry = retry;
+      long started = System.nanoTime();
+      this.result =
+          async
+              .getJobDetails(ids)
+              .whenComplete(
+                  (jobs, failure) -> {
+                    if (jobs != null) {
+                      JOB_DETAILS_SLICE_SIZE.record(
+                          ids.size(), jobs.size(), System.nanoTime() - started);
+                    }
+                  });
+    }
+  }
+
   protected static List<List<String>> slice(Iterable<String> strings, int sliceSize) {
     List<List<String>> sliced = new ArrayList<List<String>>();
     List<String> current = null;
@@ -332,9 +462,15 @@ public class SauceOnDemandBuildAction extends AbstractAction
   public JenkinsBuildInformation getSauceBuild(String sauceBuildName, boolean updateBuild) {
     if (updateBuild || buildInformation == null) {
       try {
-        buildInformation = retrieveBuildFromSauce(getSauceREST(), sauceBuildName);
-      } catch (JSONException e) {
-        logger.log(Level.WARNING, "Unable to retrieve Job data from Sauce Labs", e);
+        buildInformation = retrieveBuildInformationFromSauce(getSauceREST(), sauceBuildName);
+        buildReloadFailed = false;
+      } catch (JSONException | IOException e) {
+        logger.log(Level.WARNING, "Unable to retrieve Job data from Sauce Labs: " + e);
+        buildReloadFailed = true;
+        if (buildInformation == null) {
+          // do not keep the placeholder, so that the build is looked up again next time
+          return new JenkinsBuildInformation("");
+        }
       }
     }
 
@@ -350,11 +486,22 @@ public class SauceOnDemandBuildAction extends AbstractAction
   public List<JenkinsJobInformation> getJobs(boolean updateJobs) {
     if (updateJobs || jobInformation == null) {
       try {
-        jobInformation = new ArrayList<JenkinsJobInformation>();
-        jobInformation.addAll(
-            retrieveJobIdsFromSauce(getSauceREST(), build, getCredentials()).values());
+        AtomicBoolean complete = new AtomicBoolean(true);
+        List<JenkinsJobInformation> jobs =
+            new ArrayList<JenkinsJobInformation>(
+                retrieveJobIdsFromSauce(
+                        getSauceREST(), build, getCredentials(), jobInformation, null, complete)
+                    .values());
+        addLiveJobs(jobs, jobInformation);
+        jobInformation = jobs;
+        // refresh again next time if Sauce did not list every job
+        jobListingIncomplete = !complete.get();
       } catch (JSONException | IOException e) {
-        logger.log(Level.WARNING, "Unable to retrieve Job data from Sauce Labs", e);
+        logger.log(Level.WARNING, "Unable to retrieve Job data from Sauce Labs: " + e);
+        if (jobInformation == null) {
+          jobInformation = new ArrayList<JenkinsJobInformation>();
+        }
+        jobListingIncomplete = true;
       }
     }
     SauceCredentials credentials = getCredentials();
@@ -369,14 +516,267 @@ public class SauceOnDemandBuildAction extends AbstractAction
     return getJobs(false);
   }
 
+  /**
+   * @return true if jobs have been retrieved and all of them have finished on Sauce
+   */
+  public boolean hasOnlyTerminalJobs() {
+    List<JenkinsJobInformation> jobs = jobInformation;
+    if (jobs == null) {
+      return false;
+    }
+    for (JenkinsJobInformation job : jobs) {
+      if (!job.isTerminal()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Reloads the build and its unfinished jobs from Sauce, used by {@link SauceBuildRefresher}. */
+  void refreshFromSauce() {
+    getJobs(true);
+    JenkinsBuildInformation buildInformation = getSauceBuild(true);
+    if (!buildReloadFailed && !jobListingIncomplete && hasOnlyTerminalJobs()) {
+      analytics = SauceAnalytics.of(buildInformation, getJobs());
+    }
+  }
+
+  /**
+   * Asks {@link SauceBuildRefresher} to keep this action up to date, unless there is nothing left
+   * to refresh.
+   */
+  void markActive() {
+    if (build != null
+        && (build.isBuilding() || !isLoaded() || !hasOnlyTerminalJobs() || analytics == null)) {
+      SauceBuildRefresher.track(this);
+    }
+  }
+
+  /** @return true once the build and its jobs have been retrieved from Sauce */
+  boolean isLoaded() {
+    return jobInformation != null && buildInformation != null;
+  }
+
+  void saveBuild() {
+    if (build == null) {
+      return;
+    }
+    try {
+      build.save();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Unable to save Sauce results for " + build, e);
+    }
+  }
+
+  /**
+   * Never calls Sauce: jobs which have not been retrieved yet are left to {@link
+   * SauceBuildRefresher}, and shown once it has retrieved them.
+   */
+  @Override
+  public List<JenkinsJobInformation> getJobsWithAuth() {
+    markActive();
+    List<JenkinsJobInformation> jobs = jobInformation;
+    if (jobs == null) {
+      return Collections.emptyList();
+    }
+    SauceCredentials credentials = getCredentials();
+    for (JobInformation j : jobs) {
+      j.setHmac(credentials.getHMAC(j.getJobId()));
+    }
+    return jobs;
+  }
+
+  /**
+   * @return the jobs retrieved so far, empty until {@link SauceBuildRefresher} has retrieved them;
+   *     never calls Sauce
+   */
+  List<JenkinsJobInformation> getKnownJobs() {
+    markActive();
+    List<JenkinsJobInformation> jobs = jobInformation;
+    return jobs != null ? jobs : Collections.<JenkinsJobInformation>emptyList();
+  }
+
+  /**
+   * @return the Sauce build retrieved so far, null until {@link SauceBuildRefresher} has retrieved
+   *     it; never calls Sauce
+   */
+  JenkinsBuildInformation getKnownSauceBuild() {
+    markActive();
+    return buildInformation;
+  }
+
+  /**
+   * Adds the jobs of session ids seen in the console which Sauce did not list for the build, such
+   * as jobs whose build name was not set.
+   */
+  private void addLiveJobs(List<JenkinsJobInformation> jobs, List<JenkinsJobInformation> known)
+      throws IOException {
+    List<TestIDDetails> live = getLiveSessionIds();
+    if (live.isEmpty()) {
+      return;
+    }
+    Set<String> listed = new HashSet<String>();
+    for (JenkinsJobInformation information : jobs) {
+      listed.add(information.getJobId());
+    }
+    Map<String, JenkinsJobInformation> previous = new HashMap<String, JenkinsJobInformation>();
+    if (known != null) {
+      for (JenkinsJobInformation information : known) {
+        previous.put(information.getJobId(), information);
+      }
+    }
+    List<String> missing = new ArrayList<String>();
+    for (TestIDDetails details : live) {
+      if (!listed.add(details.getJobId())) {
+        continue;
+      }
+      JenkinsJobInformation information = previous.get(details.getJobId());
+      if (information != null && information.isTerminal()) {
+        jobs.add(information);
+      } else {
+        missing.add(details.getJobId());
+      }
+    }
+    if (!missing.isEmpty()) {
+      jobs.addAll(getJobsInformation(getSauceREST(), getCredentials(), missing).values());
+    }
+  }
+
+  /**
+   * Records a session id seen in the console while the build is running.
+   *
+   * @param details the session id and job name
+   */
+  public void addLiveSessionId(TestIDDetails details) {
+    boolean added = false;
+    synchronized (this) {
+      Map<String, TestIDDetails> current = liveSessionIds;
+      if (current == null || !current.containsKey(details.getJobId())) {
+        Map<String, TestIDDetails> copy =
+            current != null
+                ? new LinkedHashMap<String, TestIDDetails>(current)
+                : new LinkedHashMap<String, TestIDDetails>();
+        copy.put(details.getJobId(), details);
+        liveSessionIds = copy;
+        added = true;
+      }
+    }
+    if (added) {
+      logger.finer("Captured session id " + details.getJobId() + " for " + build);
+      // pick the job up on the next background refresh
+      if (build != null) {
+        SauceBuildRefresher.track(this);
+      }
+    }
+  }
+
+  /** @return session ids seen in the console while the build was running, in order */
+  public List<TestIDDetails> getLiveSessionIds() {
+    Map<String, TestIDDetails> current = liveSessionIds;
+    if (current == null) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<TestIDDetails>(current.values());
+  }
+
+  /**
+   * @return true if the console went through a {@link SessionIdLogFilter} while the build ran, so
+   *     {@link #getLiveSessionIds()} holds the session ids it saw
+   */
+  public boolean isConsoleCaptured() {
+    return consoleCaptured;
+  }
+
+  public void setConsoleCaptured(boolean consoleCaptured) {
+    this.consoleCaptured = consoleCaptured;
+  }
+
+  /**
+   * Adds the sessions of the test cases published by one test report. A pipeline publishes once
+   * per {@code junit} step, each time with the cases of that step only, so the sessions of cases
+   * published earlier are kept.
+   *
+   * @param caseJobIds ids of the jobs matched to each case by name, by case id
+   * @param caseOutputSessions sessions found in the output of the other cases, by case id
+   */
+  synchronized void setCaseSessions(
+      Map<String, String[]> caseJobIds, Map<String, List<String[]>> caseOutputSessions) {
+    Map<String, String[]> ids =
+        this.caseJobIds != null
+            ? new HashMap<String, String[]>(this.caseJobIds)
+            : new HashMap<String, String[]>();
+    Map<String, List<String[]>> sessions =
+        this.caseOutputSessions != null
+            ? new HashMap<String, List<String[]>>(this.caseOutputSessions)
+            : new HashMap<String, List<String[]>>();
+    // the latest publish decides how a case which was published again is matched
+    sessions.keySet().removeAll(caseJobIds.keySet());
+    ids.keySet().removeAll(caseOutputSessions.keySet());
+    ids.putAll(caseJobIds);
+    sessions.putAll(caseOutputSessions);
+    this.caseOutputSessions = sessions;
+    this.caseJobIds = ids;
+  }
+
+  /** @return true if the sessions of the test cases were stored when the results were published */
+  public boolean hasCaseSessions() {
+    return caseJobIds != null;
+  }
+
+  /**
+   * @param caseId id of a test case
+   * @return ids of the jobs matched to the case by name, empty if none
+   */
+  public String[] getCaseJobIds(String caseId) {
+    Map<String, String[]> ids = caseJobIds;
+    String[] jobIds = ids != null ? ids.get(caseId) : null;
+    return jobIds != null ? jobIds : new String[0];
+  }
+
+  /**
+   * @param caseId id of a test case
+   * @return sessions found in the output of the case, empty if none
+   */
+  public List<String[]> getCaseOutputSessions(String caseId) {
+    Map<String, List<String[]>> sessions = caseOutputSessions;
+    List<String[]> found = sessions != null ? sessions.get(caseId) : null;
+    return found != null ? found : Collections.<String[]>emptyList();
+  }
+
+  /** @return milliseconds the build waited for its Sauce jobs to settle, null if it did not */
+  @Exported(visibility = 2)
+  public Long getJobSettleMillis() {
+    return jobSettleMillis;
+  }
+
+  void setJobSettleMillis(Long jobSettleMillis) {
+    this.jobSettleMillis = jobSettleMillis;
+  }
+
+  /**
+   * @return true if the last refresh from Sauce failed or listed only some of the jobs, so the
+   *     results shown may be out of date
+   */
+  public boolean isStale() {
+    return buildReloadFailed || jobListingIncomplete;
+  }
+
   // Get the list of running jobs and stop them all
   public void stopJobs() throws InterruptedException {
-    JenkinsSauceREST sauceREST = getSauceREST();
+    AsyncSauceREST async = new AsyncSauceREST(getSauceREST());
     List<JenkinsJobInformation> jobs = getJobs();
-    List<Future<?>> futures = new ArrayList<>();
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
     for (JobInformation job : jobs) {
-      Runnable worker = new StopJobThread(sauceREST, job);
-      futures.add(Timer.get().submit(worker));
+      String jobId = job.getJobId();
+      futures.add(
+          async
+              .stopJob(jobId)
+              .exceptionally(
+                  e -> {
+                    // Ignore stopped job
+                    logger.log(Level.WARNING, "Failed to stop job " + jobId + ": " + e);
+                    return null;
+                  }));
     }
     for (Future<?> f : futures) {
       try {
@@ -387,14 +787,36 @@ public class SauceOnDemandBuildAction extends AbstractAction
     }
   }
 
-  // Get the list of jobs and update them with custom data
+  /**
+   * Queues custom data to be added to every job of the build. The data is sent in the background
+   * by the {@link SauceJobOutbox}, so this does not wait for Sauce. Jobs which already have, or are
+   * already about to get, the same data are skipped, so calling this again for the same jobs sends
+   * nothing.
+   *
+   * @param customDataObj custom data to add
+   * @throws IOException the update could not be queued
+   */
   public void updateJobs(Map<String, String> customDataObj) throws IOException {
-    JenkinsSauceREST sauceREST = getSauceREST();
-    JobsEndpoint jobEndpoint = sauceREST.getJobsEndpoint();
-    List<JenkinsJobInformation> jobs = getJobs();
-    for (JobInformation job : jobs) {
-      jobEndpoint.addCustomData(job.getJobId(), customDataObj);
+    SauceJobOutbox outbox = SauceJobOutbox.get();
+    int queued = 0;
+    int skipped = 0;
+    for (JobInformation job : getJobs()) {
+      if (outbox.enqueue(newJobMutation(job.getJobId()).addCustomData(customDataObj, false))) {
+        queued++;
+      } else {
+        skipped++;
+      }
     }
+    logger.fine(
+        "Queued custom data for " + queued + " jobs, " + skipped + " already had it, for " + build);
+  }
+
+  /**
+   * @param jobId Sauce job id
+   * @return an empty change to a job of this build, sent with this action's credentials
+   */
+  SauceJobMutation newJobMutation(String jobId) {
+    return new SauceJobMutation(build.getExternalizableId(), credentialsId, jobId);
   }
 
   @Override
@@ -409,31 +831,41 @@ public class SauceOnDemandBuildAction extends AbstractAction
 
   public Map<String, String> getAnalytics() {
     logger.fine("Getting Sauce analytics");
-    HashMap<String, String> analytics = new HashMap<String, String>();
-
-    JenkinsBuildInformation buildInformation = getSauceBuild(true);
-    List<JenkinsJobInformation> allJobs = getJobs();
-    long maxJobDuration = 0;
-    long totalJobDuration = 0;
-    for (JenkinsJobInformation job : allJobs) {
-      long duration = job.getDuration();
-      totalJobDuration += duration;
-      if (duration > maxJobDuration) {
-        maxJobDuration = duration;
+    markActive();
+    SauceAnalytics snapshot = analytics;
+    if (snapshot == null) {
+      // nothing final yet, summarise what is already in memory without calling Sauce
+      JenkinsBuildInformation buildInformation = this.buildInformation;
+      if (buildInformation == null) {
+        return Collections.emptyMap();
       }
+      snapshot = SauceAnalytics.of(buildInformation, getKnownJobs());
     }
+    return snapshot.toMap();
+  }
 
-    analytics.put("start", buildInformation.getStartDate());
-    analytics.put("duration", buildInformation.getPrettyDuration());
-    analytics.put("efficiency", buildInformation.getEfficiency(maxJobDuration, totalJobDuration));
-    analytics.put("size", String.valueOf(buildInformation.getJobsFinished()));
-    analytics.put("pass", buildInformation.getJobsPassRate());
-    analytics.put("fail", buildInformation.getJobsFailRate());
-    analytics.put("error", buildInformation.getJobsErrorRate());
-
+  /** @return the analytics stored for this build, null until the build has been published */
+  public SauceAnalytics getAnalyticsSnapshot() {
     return analytics;
   }
 
+  /**
+   * Reloads the Sauce build and stores a new analytics snapshot computed from it and the current
+   * jobs. Nothing is stored if the build could not be reloaded or the jobs are known to be
+   * incomplete, so that the snapshot is taken again by a later refresh.
+   *
+   * @param sauceBuildName Sauce build name, or null to use the sanitized Jenkins build number
+   */
+  public void updateAnalytics(String sauceBuildName) {
+    JenkinsBuildInformation buildInformation =
+        sauceBuildName != null ? getSauceBuild(sauceBuildName, true) : getSauceBuild(true);
+    if (buildReloadFailed || jobListingIncomplete) {
+      logger.fine("Sauce build or jobs could not be fully reloaded, not storing analytics");
+      return;
+    }
+    analytics = SauceAnalytics.of(buildInformation, getJobs());
+  }
+
   protected JenkinsSauceREST getSauceREST() {
     SauceCredentials credentials = getCredentials();
     String username = credentials != null ? credentials.getUsername() : null;
@@ -442,7 +874,8 @@ public class SauceOnDemandBuildAction extends AbstractAction
 
     DataCenter dc = DataCenter.fromString(dataCenter);
 
-    return new JenkinsSauceREST(username, accessKey, dc, Jenkins.get().getProxy());
+    return SauceRESTRegistry.get(
+        credentialsId, username, accessKey, dc, Jenkins.get().getProxy());
   }
 
   public SauceTestResultsById getById(String id) {
@@ -495,6 +928,9 @@ public class SauceOnDemandBuildAction extends AbstractAction
   @Override
   public void onAttached(Run<?, ?> run) {
     this.build = run;
+    if (run.isBuilding()) {
+      SauceBuildRefresher.track(this);
+    }
   }
 
   @Override
@@ -31,7 +31,6 @@ import com.saucelabs.jenkins.HudsonSauceConnectManager;
 import com.saucelabs.jenkins.HudsonSauceManagerFactory;
 import com.saucelabs.saucerest.DataCenter;
 import com.saucelabs.saucerest.SauceException;
-import com.saucelabs.saucerest.api.SauceConnectEndpoint;
 import com.saucelabs.saucerest.model.sauceconnect.TunnelInformation;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.EnvVars;
@@ -47,6 +46,7 @@ import hudson.model.BuildableItemWithBuildWrappers;
 import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.ItemGroup;
+import hudson.model.Run;
 import hudson.model.listeners.ItemListener;
 import hudson.plugins.sauce_ondemand.credentials.SauceCredentials;
 import hudson.tasks.BuildWrapper;
@@ -54,6 +54,7 @@ import hudson.util.ListBoxModel;
 import hudson.util.VariableResolver;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
@@ -62,6 +63,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -362,6 +365,19 @@ public class SauceOnDemandBuildWrapper extends BuildWrapper implements Serializa
     sensitiveVariables.add(SAUCE_API_KEY);
   }
 
+  /**
+   * {@inheritDoc}
+   *
+   * <p>Captures Sauce session ids from the console as the build runs, so that the publisher does
+   * not need to read the log again.
+   */
+  @Override
+  public OutputStream decorateLogger(AbstractBuild build, OutputStream logger)
+      throws IOException, InterruptedException, Run.RunnerAbortedException {
+    getSauceBuildAction(build).setConsoleCaptured(true);
+    return new SessionIdLogFilter(build).decorateLogger(build, logger);
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -714,19 +730,29 @@ public class SauceOnDemandBuildWrapper extends BuildWrapper implements Serializa
                   build, SauceOnDemandBuildWrapper.this); // get credentials
           JenkinsSauceREST sauceREST =
               credentials.getSauceREST(Jenkins.get().getProxy()); // use credentials to get sauceRest
-          SauceConnectEndpoint ep = sauceREST.getSauceConnectEndpoint();
+          AsyncSauceREST async = new AsyncSauceREST(sauceREST);
 
           if (isEnableSauceConnect() && isUseGeneratedTunnelIdentifier()) {
             try {
-              List<String> tunnels = ep.getTunnelsForAUser();
+              List<String> tunnels =
+                  AsyncSauceREST.await(async.tunnels(ep -> ep.getTunnelsForAUser()));
+              List<CompletableFuture<TunnelInformation>> infos = new ArrayList<>();
               for (String tunnel : tunnels) {
-                TunnelInformation info = ep.getTunnelInformation(tunnel);
+                infos.add(async.tunnels(ep -> ep.getTunnelInformation(tunnel)));
+              }
+              for (CompletableFuture<TunnelInformation> pending : infos) {
+                TunnelInformation info = AsyncSauceREST.await(pending);
                 if (info.tunnelIdentifier.equals(tunnelName)) {
                   listener
                       .getLogger()
                       .println("Closing tunnel with uniquely generated ID: " + tunnelName);
                   try {
-                    ep.stopTunnel(info.id);
+                    AsyncSauceREST.await(
+                        async.tunnels(
+                            ep -> {
+                              ep.stopTunnel(info.id);
+                              return null;
+                            }));
                   } catch (SauceException.UnknownError e) {
                     listener.getLogger().println("Unknown error while closing tunnel: " + e);
                   }
@@ -758,28 +784,38 @@ public class SauceOnDemandBuildWrapper extends BuildWrapper implements Serializa
           buildAction.updateJobs(customData);
         }
 
-        // Wait up to 5s and see if # of jobs changes, if it does, stop them again and reset wait
-        // time
+        // Wait for the jobs to settle, stopping or updating any which appear in the meantime
         if (forceCleanup || !isDisableUsageStats()) {
-          List<JenkinsJobInformation> jobs = buildAction.getJobs();
-          int numJobs = jobs.size();
-          for (int waitCount = 0; waitCount < 5; waitCount++) {
-            Thread.sleep(1000);
-            buildAction =
-                new SauceOnDemandBuildAction(build, SauceOnDemandBuildWrapper.this.credentialId);
-            jobs = buildAction.getJobs();
-            if (jobs.size() != numJobs) {
-              if (forceCleanup) {
-                buildAction.stopJobs();
-              }
-              if (!isDisableUsageStats()) {
-                buildAction.updateJobs(customData);
-              }
-              numJobs = jobs.size();
-              waitCount = -1;
-            }
-          }
+          PluginImpl plugin = PluginImpl.get();
+          int timeout =
+              plugin != null
+                  ? plugin.getJobSettleTimeoutLimit()
+                  : PluginImpl.DEFAULT_JOB_SETTLE_TIMEOUT;
+          JobSettleDetector detector =
+              new JobSettleDetector(buildAction, TimeUnit.SECONDS.toMillis(timeout));
+          int numJobs =
+              detector.settle(
+                  settling -> {
+                    if (forceCleanup) {
+                      settling.stopJobs();
+                    }
+                    if (!isDisableUsageStats()) {
+                      settling.updateJobs(customData);
+                    }
+                  });
           listener.getLogger().println("Stopped/completed/updated " + numJobs + " jobs");
+          listener
+              .getLogger()
+              .println(
+                  (detector.isSettled()
+                          ? "Sauce jobs settled after "
+                          : "Sauce jobs still changing after ")
+                      + detector.getSettleMillis()
+                      + "ms");
+          SauceOnDemandBuildAction attached = getSauceBuildAction(build);
+          if (attached != null) {
+            attached.setJobSettleMillis(detector.getSettleMillis());
+          }
         }
 
         listener.getLogger().println("Finished post-build for Sauce Labs plugin");
@@ -1234,7 +1270,7 @@ public class SauceOnDemandBuildWrapper extends BuildWrapper implements Serializa
           ((HudsonSauceConnectManager) sauceTunnelManager)
               .setUseLatestSauceConnect(useLatestSauceConnect);
         }
-        sauceTunnelManager.setSauceRest(new JenkinsSauceREST(username, key, dataCenter, proxy));
+        sauceTunnelManager.setSauceRest(SauceRESTRegistry.get(username, key, dataCenter, proxy));
         if (StringUtils.isBlank(username)) {
           listener.getLogger().println("Username not set, not starting Sauce Connect");
         } else if (StringUtils.isBlank(key)) {
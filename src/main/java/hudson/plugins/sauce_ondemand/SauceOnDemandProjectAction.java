@@ -152,7 +152,8 @@ public class SauceOnDemandProjectAction extends AbstractAction {
         if (sauceOnDemandBuildAction != null) {
             List<JenkinsJobInformation> allJobs = new ArrayList<JenkinsJobInformation>();
             for (SauceOnDemandBuildAction action : sauceOnDemandBuildAction) {
-                allJobs.addAll(action.getJobs(true));
+                // kept up to date by SauceBuildRefresher, never fetched while rendering
+                allJobs.addAll(action.getKnownJobs());
             }
             return allJobs;
         }
@@ -165,13 +166,25 @@ public class SauceOnDemandProjectAction extends AbstractAction {
         List<SauceOnDemandBuildAction> sauceOnDemandBuildActions = getSauceBuildActions();
         if (sauceOnDemandBuildActions != null) {
             for (SauceOnDemandBuildAction action : sauceOnDemandBuildActions) {
-                return action.getSauceBuild(true);
+                return action.getKnownSauceBuild();
             }
         }
         logger.fine("No Sauce build found");
         return null;
     }
 
+    /**
+     * @return Whether any of the results shown could not be refreshed from Sauce
+     */
+    public boolean isStale() {
+        for (SauceOnDemandBuildAction action : getSauceBuildActions()) {
+            if (action.isStale()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public Map<String,String> getAnalytics() {
         logger.fine("Getting Sauce analytics");
         SauceOnDemandBuildAction sauceBuildAction = getSauceBuildActions().get(0);
@@ -25,17 +25,21 @@ package hudson.plugins.sauce_ondemand;
 
 import com.saucelabs.ci.JobInformation;
 import hudson.model.AbstractBuild;
+import hudson.plugins.sauce_ondemand.credentials.SauceCredentials;
 import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.SuiteResult;
 import hudson.tasks.junit.TestObject;
+import hudson.tasks.junit.TestResult;
 import hudson.tasks.junit.TestResultAction.Data;
-import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Contributes {@link SauceOnDemandReport} to {@link CaseResult}.
@@ -48,14 +52,6 @@ public class SauceOnDemandReportFactory extends Data {
 
     public static final SauceOnDemandReportFactory INSTANCE = new SauceOnDemandReportFactory();
 
-    /**
-     * Ideally we also want word boundaries but it doesn't work with \Q \E
-     * But since job names can be arbitrary, things like [] would cause errors without it
-     * so this seems like the safer option
-     *
-     * Aug 29, 2018: The $ is a new addition that solves some edge cases but could potentially break other edge cases
-     */
-    private static final String JOB_NAME_PATTERN = "("+Pattern.quote("{0}")+")$";
     /**
      * Makes this a singleton -- since it's stateless, there's no need to keep one around for every build.
      *
@@ -81,6 +77,22 @@ public class SauceOnDemandReportFactory extends Data {
                 logger.log(Level.FINER, "Unable to get build action from caseresult owner, try using run instead");
                 buildAction = SauceOnDemandBuildAction.getSauceBuildAction(cr.getRun());
             }
+            if (buildAction != null && buildAction.hasCaseSessions()) {
+                // matched when the results were published
+                String[] jobIds = buildAction.getCaseJobIds(cr.getId());
+                if (jobIds.length > 0) {
+                    SauceCredentials credentials = buildAction.getCredentials();
+                    for (String jobId : jobIds) {
+                        ids.add(new String[]{jobId, credentials.getHMAC(jobId)});
+                    }
+                } else {
+                    ids.addAll(buildAction.getCaseOutputSessions(cr.getId()));
+                }
+                if (ids.isEmpty()) {
+                    return Collections.emptyList();
+                }
+                return Collections.singletonList(new SauceOnDemandReport(buildAction, ids));
+            }
             if (buildAction != null) {
                 List<JenkinsJobInformation> jobs = buildAction.getJobs();
                 for (JobInformation job : jobs) {
@@ -119,6 +131,45 @@ public class SauceOnDemandReportFactory extends Data {
         return Collections.emptyList();
     }
 
+    /**
+     * Matches every test case of a build to its Sauce jobs, so that {@link #getTestAction(TestObject)} only has to
+     * look the case up. Cases which no job name matches get the sessions found in their output instead.
+     *
+     * @param buildAction action to store the mapping on
+     * @param testResult test results of the build
+     * @param testNames index of the cases of the test results
+     * @param jobs Sauce jobs of the build
+     */
+    static void mapCaseSessions(SauceOnDemandBuildAction buildAction, TestResult testResult,
+                                TestNameIndex testNames, Collection<? extends JobInformation> jobs) {
+        Map<String, List<String>> matched = new HashMap<String, List<String>>();
+        for (JobInformation job : jobs) {
+            if (job.getName() == null) {
+                continue;
+            }
+            for (CaseResult cr : testNames.matches(job.getName(), TestNameIndex.Rule.ENDS_WITH)) {
+                matched.computeIfAbsent(cr.getId(), k -> new ArrayList<String>()).add(job.getJobId());
+            }
+        }
+        Map<String, String[]> caseJobIds = new HashMap<String, String[]>();
+        for (Map.Entry<String, List<String>> e : matched.entrySet()) {
+            caseJobIds.put(e.getKey(), e.getValue().toArray(new String[0]));
+        }
+
+        Map<String, List<String[]>> caseOutputSessions = new HashMap<String, List<String[]>>();
+        for (SuiteResult sr : testResult.getSuites()) {
+            for (CaseResult cr : sr.getCases()) {
+                if (!matched.containsKey(cr.getId())) {
+                    List<String[]> sessions = findSessionIDs(cr, cr.getStdout(), cr.getStderr());
+                    if (!sessions.isEmpty()) {
+                        caseOutputSessions.put(cr.getId(), sessions);
+                    }
+                }
+            }
+        }
+        buildAction.setCaseSessions(caseJobIds, caseOutputSessions);
+    }
+
     /**
      * Returns all sessions matching a given jobName in the provided logs.
      * If no session is found for the jobName, return all session that do not provide job-name (old format)
@@ -131,7 +182,7 @@ public class SauceOnDemandReportFactory extends Data {
         List<String[]> matchedSessions = new ArrayList<String[]>();
 
         for (String text : output) {
-            if (text == null) continue;
+            if (text == null || !text.contains(SessionIdScanner.MARKER)) continue;
             Matcher m = SauceOnDemandBuildAction.SESSION_ID_PATTERN.matcher(text);
             while (m.find()) {
                 String sessionId = m.group(1);
@@ -162,12 +213,13 @@ public class SauceOnDemandReportFactory extends Data {
         return sessions;
     }
 
+    /**
+     * Aug 29, 2018: Matching the end of the full name is a new addition that solves some edge cases but could
+     * potentially break other edge cases. {@link TestNameIndex} matches the same way for many jobs at once.
+     */
     public static boolean matchTestNames(String jobName, String fullName, String displayName) {
-        Pattern jobNamePattern = Pattern.compile(MessageFormat.format(JOB_NAME_PATTERN, jobName));
-        Matcher matcher = jobNamePattern.matcher(fullName);
-
         return jobName.equals(fullName) //if job name equals full name of test
             || jobName.contains(displayName) //or if job name contains the test name
-            || matcher.find(); //or if the full name of the test contains the job name (must end the same, as only the beginning should differ)
+            || fullName.endsWith(jobName); //or if the full name of the test contains the job name (must end the same, as only the beginning should differ)
     }
 }
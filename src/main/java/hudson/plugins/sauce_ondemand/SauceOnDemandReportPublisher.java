@@ -24,14 +24,13 @@
 package hudson.plugins.sauce_ondemand;
 
 import com.saucelabs.saucerest.JobVisibility;
-import com.saucelabs.saucerest.api.JobsEndpoint;
 import com.saucelabs.saucerest.model.jobs.Job;
-import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
 import hudson.model.Descriptor;
@@ -43,21 +42,23 @@ import hudson.tasks.junit.TestDataPublisher;
 import hudson.tasks.junit.TestResult;
 import hudson.tasks.junit.TestResultAction;
 import hudson.util.ListBoxModel;
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.text.MessageFormat;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import jenkins.model.Jenkins;
 import org.json.JSONException;
@@ -76,12 +77,18 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
   private static final Logger logger =
       Logger.getLogger(SauceOnDemandReportPublisher.class.getName());
 
-  /** Regex which identifies the job name. */
-  private static final String JOB_NAME_PATTERN = Pattern.quote("{0}");
+  /** Pool the suites are scanned on, see {@link #scanPool(int)}. */
+  private static ForkJoinPool scanPool;
 
   /** What job security level we should set jobs to */
   private String jobVisibility = "";
 
+  /**
+   * Ant style patterns of workspace files to scan for session ids on the agent, instead of scanning
+   * the test output on the controller.
+   */
+  private String agentScanFiles;
+
   /** Constructs a new instance. */
   @DataBoundConstructor
   public SauceOnDemandReportPublisher() {}
@@ -99,7 +106,7 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
     LinkedList<TestIDDetails> onDemandTests = new LinkedList<TestIDDetails>();
 
     for (String logString : logStrings) {
-      if (logString == null) continue;
+      if (logString == null || !logString.contains(SessionIdScanner.MARKER)) continue;
       for (String text : logString.split("\n|\r")) {
         TestIDDetails details = TestIDDetails.processString(text);
         if (details != null) {
@@ -111,6 +118,71 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
     return onDemandTests;
   }
 
+  /**
+   * Scans the output of every suite, and of its cases where it differs from the suite's, for
+   * session ids. Suites are scanned in parallel on a pool shared by every publish, so that
+   * publishing does not take over the common pool and no threads are started for each build.
+   *
+   * @param suites test suites, in order
+   * @param parallelism number of suites scanned at the same time
+   * @return session ids found, in suite order
+   */
+  static List<TestIDDetails> processSuites(Collection<SuiteResult> suites, int parallelism) {
+    if (parallelism <= 1 || suites.size() <= 1) {
+      List<TestIDDetails> testIds = new ArrayList<TestIDDetails>();
+      for (SuiteResult sr : suites) {
+        testIds.addAll(processSuite(sr));
+      }
+      return testIds;
+    }
+    ForkJoinPool pool = scanPool(parallelism);
+    try {
+      return pool.submit(
+              () ->
+                  suites.parallelStream()
+                      .map(SauceOnDemandReportPublisher::processSuite)
+                      .flatMap(List::stream)
+                      .collect(Collectors.toList()))
+          .get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      logger.warning("Interrupted while scanning test suites for session ids");
+      return new ArrayList<TestIDDetails>();
+    } catch (ExecutionException e) {
+      logger.log(Level.WARNING, "Unable to scan test suites in parallel, scanning in order", e);
+      return processSuites(suites, 1);
+    }
+  }
+
+  /**
+   * @param parallelism number of suites scanned at the same time
+   * @return the shared scanning pool, replaced when the configured parallelism changes; its idle
+   *     threads exit on their own
+   */
+  private static synchronized ForkJoinPool scanPool(int parallelism) {
+    if (scanPool == null || scanPool.getParallelism() != parallelism) {
+      if (scanPool != null) {
+        // scans already running on the old pool still finish
+        scanPool.shutdown();
+      }
+      scanPool = new ForkJoinPool(parallelism);
+    }
+    return scanPool;
+  }
+
+  private static List<TestIDDetails> processSuite(SuiteResult sr) {
+    List<TestIDDetails> testIds = processSessionIds(false, sr.getStdout(), sr.getStderr());
+    for (CaseResult cr : sr.getCases()) {
+      if (!Objects.equals(cr.getStdout(), sr.getStdout())) {
+        testIds.addAll(processSessionIds(false, cr.getStdout()));
+      }
+      if (!Objects.equals(cr.getStderr(), sr.getStderr())) {
+        testIds.addAll(processSessionIds(false, cr.getStderr()));
+      }
+    }
+    return testIds;
+  }
+
   public String getJobVisibility() {
     return jobVisibility;
   }
@@ -120,6 +192,15 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
     this.jobVisibility = jobVisibility;
   }
 
+  public String getAgentScanFiles() {
+    return agentScanFiles;
+  }
+
+  @DataBoundSetter
+  public void setAgentScanFiles(String agentScanFiles) {
+    this.agentScanFiles = Util.fixEmptyAndTrim(agentScanFiles);
+  }
+
   @Override
   public TestResultAction.Data contributeTestData(
       Run<?, ?> run,
@@ -133,7 +214,7 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
       logger.finer("Sauce Labs test publisher was started in contributeTestData method");
       SauceOnDemandBuildAction buildAction = SauceOnDemandBuildAction.getSauceBuildAction(run);
       if (buildAction != null) {
-        processBuildOutput(run, buildAction, testResult, listener);
+        processBuildOutput(run, workspace, buildAction, testResult, listener);
         if (buildAction.hasSauceOnDemandResults()) {
           return SauceOnDemandReportFactory.INSTANCE;
         } else {
@@ -170,7 +251,7 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
       logger.finer("Sauce Labs test publisher was started in getTestData method");
       SauceOnDemandBuildAction buildAction = SauceOnDemandBuildAction.getSauceBuildAction(build);
       if (buildAction != null) {
-        processBuildOutput(build, buildAction, testResult, listener);
+        processBuildOutput(build, build.getWorkspace(), buildAction, testResult, listener);
         if (buildAction.hasSauceOnDemandResults()) {
           return SauceOnDemandReportFactory.INSTANCE;
         } else {
@@ -191,18 +272,21 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
    * Processes the build output to associate the Jenkins build with the Sauce job.
    *
    * @param build The build in progress
+   * @param workspace workspace of the build, may be null
    * @param buildAction the Sauce Build Action instance for the build
    * @param testResult Contains the test results for the build.
    */
-  @SuppressFBWarnings("DM_DEFAULT_ENCODING")
   private void processBuildOutput(
       Run build,
+      FilePath workspace,
       SauceOnDemandBuildAction buildAction,
       TestResult testResult,
       TaskListener listener) {
 
     JenkinsSauceREST sauceREST = getSauceREST(build);
-    JobsEndpoint jobs = sauceREST.getJobsEndpoint();
+    AsyncSauceREST jobs = new AsyncSauceREST(sauceREST);
+    // each job's details are downloaded at most once per publish
+    JobDetailsCache jobDetails = new JobDetailsCache(jobs);
 
     boolean failureMessageSent = false;
 
@@ -217,7 +301,9 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
     String sauceBuildName = null;
 
     try {
-      onDemandTests = buildAction.retrieveJobIdsFromSauce(sauceREST, build);
+      onDemandTests =
+          SauceOnDemandBuildAction.retrieveJobIdsFromSauce(
+              sauceREST, build, buildAction.getCredentials(), null, jobDetails);
     } catch (JSONException | IOException e) {
       logger.finer("Exception during retrieveJobIdsFromSauce:" + e);
       onDemandTests = new LinkedHashMap<>();
@@ -225,26 +311,24 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
       logger.severe(e.getMessage());
     }
 
-    LinkedList<TestIDDetails> testIds = new LinkedList<TestIDDetails>();
+    SessionIdSet testIds = new SessionIdSet();
+    // built on first use, once per publish
+    TestNameIndex testNames = null;
 
-    BufferedReader in = null;
-    try {
-      in = new BufferedReader(new InputStreamReader(build.getLogInputStream()));
-      String line;
+    try (InputStream log = build.getLogInputStream()) {
       logger.log(Level.FINE, "Parsing Sauce Session ids in stdout");
-
-      while ((line = in.readLine()) != null) {
-        testIds.addAll(processSessionIds(true, line));
-      }
+      SessionIdScanner.scan(log, build.getCharset(), testIds::add);
     } catch (IOException e) {
       logger.finer("Exception while adding testIds ");
       logger.severe(e.getMessage());
-    } finally {
-      if (in != null) {
-        try {
-          in.close();
-        } catch (IOException e) {
-          e.printStackTrace();
+    }
+    if (buildAction.isConsoleCaptured()) {
+      // the log holds lines which never went through the filter, and the filter may have seen ids
+      // the log no longer holds, so both are used
+      logger.log(Level.FINE, "Adding Sauce Session ids captured from stdout during the build");
+      for (TestIDDetails details : buildAction.getLiveSessionIds()) {
+        if (!testIds.contains(details.getJobId())) {
+          testIds.add(details);
         }
       }
     }
@@ -261,16 +345,22 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
               + "/"
               + testResult.getSkipCount());
 
-      for (SuiteResult sr : testResult.getSuites()) {
-        testIds.addAll(processSessionIds(false, sr.getStdout(), sr.getStderr()));
-        for (CaseResult cr : sr.getCases()) {
-          if (!Objects.equals(cr.getStdout(), sr.getStdout())) {
-            testIds.addAll(processSessionIds(false, cr.getStdout()));
-          }
-          if (!Objects.equals(cr.getStderr(), sr.getStderr())) {
-            testIds.addAll(processSessionIds(false, cr.getStderr()));
-          }
+      if (agentScanFiles != null && workspace != null) {
+        try {
+          testIds.addAll(workspace.act(new SessionIdFileScanner(agentScanFiles)));
+        } catch (IOException e) {
+          logger.log(Level.WARNING, "Unable to scan " + agentScanFiles + " for session ids", e);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          logger.log(Level.WARNING, "Interrupted while scanning for session ids", e);
         }
+      } else {
+        PluginImpl plugin = PluginImpl.get();
+        int parallelism =
+            plugin != null
+                ? plugin.getSessionIdScanParallelismLimit()
+                : PluginImpl.DEFAULT_SESSION_ID_SCAN_PARALLELISM;
+        testIds.addAll(processSuites(testResult.getSuites(), parallelism));
       }
 
       if (!isDisableUsageStats()) {
@@ -282,47 +372,94 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
       }
     }
 
+    if (testIds.getDuplicates() > 0) {
+      listener
+          .getLogger()
+          .println(
+              "Found "
+                  + testIds.size()
+                  + " Sauce session ids, ignored "
+                  + testIds.getDuplicates()
+                  + " duplicates");
+    }
+
+    long started = System.nanoTime();
+    PluginImpl plugin = PluginImpl.get();
+    int window =
+        plugin != null
+            ? plugin.getJobDetailsParallelismLimit()
+            : PluginImpl.DEFAULT_JOB_DETAILS_PARALLELISM;
+
+    // fetch the jobs Sauce did not list for the build
+    List<String> unknown = new ArrayList<String>();
     for (TestIDDetails details : testIds) {
-      JenkinsJobInformation jobInformation;
-      if (onDemandTests.containsKey(details.getJobId())) {
-        jobInformation = onDemandTests.get(details.getJobId());
-      } else {
+      if (!onDemandTests.containsKey(details.getJobId())) {
+        unknown.add(details.getJobId());
+      }
+    }
+    try {
+      for (JenkinsJobInformation information :
+          BoundedCalls.run(
+              unknown,
+              window,
+              jobId ->
+                  jobDetails
+                      .getJobDetails(jobId)
+                      .handle(
+                          (job, e) -> {
+                            JenkinsJobInformation fetched = new JenkinsJobInformation(jobId, "");
+                            if (e != null) {
+                              logger.warning("Unable to get job details");
+                            } else {
+                              fetched.populate(job);
+                            }
+                            return fetched;
+                          }))) {
+        onDemandTests.put(information.getJobId(), information);
+      }
+    } catch (IOException e) {
+      logger.warning("Unable to get job details: " + e);
+    }
+
+    // work out what to change, in order
+    List<SauceJobMutation> pending = new ArrayList<SauceJobMutation>();
+    int unchanged = 0;
+    for (TestIDDetails details : testIds) {
+      JenkinsJobInformation jobInformation = onDemandTests.get(details.getJobId());
+      if (jobInformation == null) {
         jobInformation = new JenkinsJobInformation(details.getJobId(), "");
-        try {
-          Job job = jobs.getJobDetails(details.getJobId());
-          jobInformation.populate(job);
-        } catch (IOException e) {
-          logger.warning("Unable to get job details");
-        }
         onDemandTests.put(jobInformation.getJobId(), jobInformation);
       }
       Map<String, Object> updates = jobInformation.getChanges();
-      UpdateJobParameter.Builder builder = new UpdateJobParameter.Builder();
+      SauceJobMutation mutation = buildAction.newJobMutation(jobInformation.getJobId());
 
       // only store passed/name values if they haven't already been set
       if (jobInformation.getStatus() == null) {
-        Boolean buildResult = hasTestPassed(testResult, jobInformation);
+        if (testNames == null) {
+          testNames = indexTestNames(testResult);
+        }
+        Boolean buildResult = hasTestPassed(testNames, jobInformation);
         if (buildResult != null) {
           // set the status to passed if the test was successful
           jobInformation.setStatus(buildResult.booleanValue() ? "Passed" : "Failed");
           updates.put("passed", buildResult);
-          builder.setPassed(buildResult);
+          mutation.setPassed(buildResult);
         }
       }
       if (!jobInformation.hasJobName()) {
         jobInformation.setName(details.getJobName());
         updates.put("name", details.getJobName());
-        builder.setName(details.getJobName());
+        mutation.setName(details.getJobName());
       }
       if (!jobInformation.hasBuild()) {
         jobInformation.setBuild(SauceEnvironmentUtil.getSanitizedBuildNumber(build));
         updates.put("build", jobInformation.getBuild());
-        builder.setBuild(jobInformation.getBuild());
+        mutation.setBuild(jobInformation.getBuild());
       }
 
       if (getJobVisibility() != null && !getJobVisibility().isEmpty()) {
         updates.put("public", getJobVisibility());
-        builder.setVisibility(JobVisibility.valueOf(getJobVisibility()));
+        mutation.setVisibility(JobVisibility.valueOf(getJobVisibility()).name());
       }
 
       // add the failure message to custom data IF we're sending data, also there may be other
@@ -331,38 +468,27 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
           && testResult != null
           && "Failed".equals(jobInformation.getStatus())) {
         Map<String, String> customData = new HashMap<String, String>();
-
-        // preserve any existing custom data
-        try {
-          Job job = jobs.getJobDetails(details.getJobId());
-          if (job.customData.size() > 0) {
-            Iterator<String> customDataKeys = job.customData.keySet().iterator();
-            while (customDataKeys.hasNext()) {
-              String customDataKey = customDataKeys.next();
-              customData.put(customDataKey, job.customData.get(customDataKey));
-            }
-          }
-        } catch (IOException e) {
-          logger.warning("Unable to get job details for " + details.getJobId());
-        }
-
         // see if failedTests contains the job name
         if (failedTestsMap.get(jobInformation.getName()) != null) {
           customData.put("FAILURE_MESSAGE", failedTestsMap.get(jobInformation.getName()));
           failureMessageSent = true;
         }
         updates.put("custom-data", customData);
-        builder.setCustomData(customData);
+        // preserve any existing custom data, the outbox reuses what was downloaded here
+        Job known = jobDetails.getIfPresent(jobInformation.getJobId());
+        mutation.addCustomData(customData, true);
+        if (known != null) {
+          mutation.setExistingCustomData(
+              known.customData != null
+                  ? known.customData
+                  : Collections.<String, String>emptyMap());
+        }
       }
 
       if (!updates.isEmpty()) {
-        logger.fine("Performing Sauce REST update for " + jobInformation.getJobId());
-
-        try {
-          jobs.updateJob(jobInformation.getJobId(), builder.build());
-        } catch (IOException e) {
-          logger.warning("Unable to update job information for " + jobInformation.getJobId());
-        }
+        pending.add(mutation);
+      } else {
+        unchanged++;
       }
 
       // this *may* be causing problems with custom build names that don't match the
@@ -374,6 +500,45 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
       }
     }
 
+    // the outbox sends the changes in the background, the build does not wait for Sauce
+    int queued = 0;
+    int alreadyQueued = 0;
+    int failed = 0;
+    SauceJobOutbox outbox = SauceJobOutbox.get();
+    for (SauceJobMutation mutation : pending) {
+      try {
+        if (outbox.enqueue(mutation)) {
+          queued++;
+        } else {
+          alreadyQueued++;
+        }
+      } catch (IOException e) {
+        logger.warning("Unable to queue job update for " + mutation.getJobId() + ": " + e);
+        listener
+            .getLogger()
+            .println("Unable to update Sauce job " + mutation.getJobId() + ": " + e.getMessage());
+        failed++;
+      }
+    }
+    if (!testIds.isEmpty()) {
+      listener
+          .getLogger()
+          .println(
+              "Sauce job updates queued: "
+                  + queued
+                  + ", already queued or sent: "
+                  + alreadyQueued
+                  + ", failed: "
+                  + failed
+                  + ", unchanged: "
+                  + unchanged
+                  + " (sent in the background, "
+                  + outbox.getPendingCount()
+                  + " updates pending) in "
+                  + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+                  + " ms");
+    }
+
     /*
        Analytics data collection can be placed here. To disable collection, the following
        can be used:
@@ -384,6 +549,14 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
 
     if (!onDemandTests.isEmpty()) {
       buildAction.setJobs(new LinkedList<>(onDemandTests.values()));
+      buildAction.updateAnalytics(sauceBuildName);
+      if (testResult != null) {
+        if (testNames == null) {
+          testNames = indexTestNames(testResult);
+        }
+        SauceOnDemandReportFactory.mapCaseSessions(
+            buildAction, testResult, testNames, onDemandTests.values());
+      }
       try {
         build.save();
       } catch (IOException e) {
@@ -417,70 +590,41 @@ public class SauceOnDemandReportPublisher extends TestDataPublisher {
    *
    * If a match is found, then a boolean representing whether the test passed will be returned.
    *
-   * @param testResult Contains the test results for the build.
+   * @param testNames index of the test cases of the build, null if there are no test results
    * @param job details of a Sauce job which was run during the build.
    * @return Boolean indicating whether the test was successful.
    */
   @SuppressFBWarnings("NP_BOOLEAN_RETURN_NULL")
-  private Boolean hasTestPassed(TestResult testResult, JenkinsJobInformation job) {
+  private Boolean hasTestPassed(TestNameIndex testNames, JenkinsJobInformation job) {
 
-    if (testResult == null) {
+    if (testNames == null || job.getName() == null || job.getStatus() != null) {
       return null;
     }
 
-    for (SuiteResult sr : testResult.getSuites()) {
-      for (CaseResult cr : sr.getCases()) {
-        // if job name matches test class/test name, and pass/fail status is null, then populate the
-        // Sauce job with the test result status
-        if (job.getName() != null && job.getStatus() == null) {
-          try {
-            Pattern jobNamePattern =
-                Pattern.compile(MessageFormat.format(JOB_NAME_PATTERN, job.getName()));
-            Matcher matcher = jobNamePattern.matcher(cr.getFullName());
-            if (job.getName().equals(cr.getFullName()) // if job name equals full name of test
-                || job.getName()
-                    .contains(cr.getDisplayName()) // or if job name contains the test name
-                || matcher
-                    .find()) { // or if the full name of the test contains the job name (matching
-              // whole words only)
-              // then we have a match
-              // check the pass/fail status of the
-              return cr.getStatus().equals(CaseResult.Status.PASSED)
-                  || cr.getStatus().equals(CaseResult.Status.FIXED);
-            }
-          } catch (Exception e) {
-            // ignore and continue
-            logger.log(Level.WARNING, "Error parsing line, attempting to continue", e);
-          }
-        }
-      }
+    // the passed tests are a subset of the suites' cases, so there is nothing more to look at if no
+    // case of a suite matches
+    CaseResult cr = testNames.firstMatch(job.getName(), TestNameIndex.Rule.CONTAINS);
+    if (cr == null) {
+      return null;
     }
+    // check the pass/fail status of the test
+    return cr.getStatus().equals(CaseResult.Status.PASSED)
+        || cr.getStatus().equals(CaseResult.Status.FIXED);
+  }
 
-    logger.log(Level.FINER, "No matches with suites, attempt to use passed tests");
-    for (CaseResult cr : testResult.getPassedTests()) {
-      if (job.getName() != null && job.getStatus() == null) {
-        try {
-          Pattern jobNamePattern =
-              Pattern.compile(MessageFormat.format(JOB_NAME_PATTERN, job.getName()));
-          Matcher matcher = jobNamePattern.matcher(cr.getFullName());
-          if (job.getName().equals(cr.getFullName()) // if job name equals full name of test
-              || job.getName()
-                  .contains(cr.getDisplayName()) // or if job name contains the test name
-              || matcher
-                  .find()) { // or if the full name of the test contains the job name (matching
-            // whole words only)
-            // then we have a match
-            // check the pass/fail status of the
-            return cr.getStatus().equals(CaseResult.Status.PASSED)
-                || cr.getStatus().equals(CaseResult.Status.FIXED);
-          }
-        } catch (Exception e) {
-          // ignore and continue
-          logger.log(Level.WARNING, "Error parsing line, attempting to continue", e);
-        }
-      }
+  /**
+   * @param testResult test results of the build, may be null
+   * @return an index of every case of every suite, in suite order, null without results
+   */
+  static TestNameIndex indexTestNames(TestResult testResult) {
+    if (testResult == null) {
+      return null;
     }
-    return null;
+    List<CaseResult> cases = new ArrayList<CaseResult>();
+    for (SuiteResult sr : testResult.getSuites()) {
+      cases.addAll(sr.getCases());
+    }
+    return new TestNameIndex(cases);
   }
 
   /** Descriptor for the custom publisher. */
@@ -0,0 +1,186 @@
+package hudson.plugins.sauce_ondemand;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.saucelabs.saucerest.DataCenter;
+import hudson.Extension;
+import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+
+/**
+ * Hands out shared {@link JenkinsSauceREST} clients so that every page view, publisher run and
+ * form validation for the same account reuses one HTTP client (and its connection pool) instead of
+ * building a new one.
+ *
+ * <p>Clients are keyed by credentials id (or username when there is no stored credential), data
+ * center and proxy configuration. The secret is not part of the key: when it changes, as it does
+ * for short lived tokens, the client of the key is replaced rather than added next to the old one.
+ * Clients are closed when they are replaced, once they have been idle for {@link
+ * #IDLE_TIMEOUT_MILLIS}, and when the Jenkins proxy configuration is saved.
+ */
+public final class SauceRESTRegistry {
+
+  private static final Logger logger = Logger.getLogger(SauceRESTRegistry.class.getName());
+
+  /** How long a client may sit unused before it is dropped from the registry. */
+  static final long IDLE_TIMEOUT_MILLIS =
+      TimeUnit.MINUTES.toMillis(
+          SystemProperties.getLong(SauceRESTRegistry.class.getName() + ".idleMinutes", 10L));
+
+  private static final Cache<Key, Entry> clients =
+      CacheBuilder.newBuilder()
+          .expireAfterAccess(IDLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+          .removalListener((RemovalListener<Key, Entry>) n -> n.getValue().client.close())
+          .build();
+
+  private SauceRESTRegistry() {}
+
+  /**
+   * @param username Sauce username
+   * @param accessKey Sauce access key (or short lived token)
+   * @param dataCenter Sauce data center
+   * @param proxy Jenkins proxy configuration, may be null
+   * @return a shared client for the given account and data center
+   */
+  public static JenkinsSauceREST get(
+      String username, String accessKey, DataCenter dataCenter, ProxyConfiguration proxy) {
+    return get(null, username, accessKey, dataCenter, proxy);
+  }
+
+  /**
+   * @param credentialsId id of the stored credential the access key comes from, may be null
+   * @param username Sauce username
+   * @param accessKey Sauce access key (or short lived token)
+   * @param dataCenter Sauce data center
+   * @param proxy Jenkins proxy configuration, may be null
+   * @return a shared client for the given credential and data center
+   */
+  public static JenkinsSauceREST get(
+      String credentialsId,
+      String username,
+      String accessKey,
+      DataCenter dataCenter,
+      ProxyConfiguration proxy) {
+    Key key = new Key(credentialsId, username, dataCenter, proxy);
+    String accessKeyDigest = digest(accessKey);
+    while (true) {
+      Entry entry =
+          clients
+              .asMap()
+              .computeIfAbsent(
+                  key,
+                  k ->
+                      new Entry(
+                          new JenkinsSauceREST(username, accessKey, dataCenter, proxy),
+                          accessKeyDigest));
+      if (Objects.equals(entry.accessKeyDigest, accessKeyDigest)) {
+        return entry.client;
+      }
+      // the secret changed, drop (and close) the client built for the old one
+      clients.asMap().remove(key, entry);
+    }
+  }
+
+  /** Drops and closes every client, forcing new ones to be built on next use. */
+  public static void invalidateAll() {
+    if (clients.size() > 0) {
+      logger.fine("Invalidating " + clients.size() + " shared Sauce REST clients");
+      clients.invalidateAll();
+    }
+  }
+
+  static int size() {
+    clients.cleanUp();
+    return (int) clients.size();
+  }
+
+  private static String digest(String secret) {
+    return secret == null ? null : Util.getDigestOf(secret);
+  }
+
+  private static final class Entry {
+    private final JenkinsSauceREST client;
+    private final String accessKeyDigest;
+
+    Entry(JenkinsSauceREST client, String accessKeyDigest) {
+      this.client = client;
+      this.accessKeyDigest = accessKeyDigest;
+    }
+  }
+
+  private static final class Key {
+    private final String credentialsId;
+    private final String username;
+    private final DataCenter dataCenter;
+    private final String proxyName;
+    private final int proxyPort;
+    private final String proxyUserName;
+    private final String noProxyHost;
+    private final String proxyPasswordDigest;
+
+    Key(String credentialsId, String username, DataCenter dataCenter, ProxyConfiguration proxy) {
+      this.credentialsId = credentialsId;
+      this.username = username;
+      this.dataCenter = dataCenter;
+      if (proxy == null) {
+        this.proxyName = null;
+        this.proxyPort = 0;
+        this.proxyUserName = null;
+        this.noProxyHost = null;
+        this.proxyPasswordDigest = null;
+      } else {
+        this.proxyName = proxy.name;
+        this.proxyPort = proxy.port;
+        this.proxyUserName = proxy.getUserName();
+        this.noProxyHost = proxy.getNoProxyHost();
+        this.proxyPasswordDigest =
+            proxy.getSecretPassword() == null
+                ? null
+                : digest(proxy.getSecretPassword().getPlainText());
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      return proxyPort == key.proxyPort
+          && Objects.equals(credentialsId, key.credentialsId)
+          && Objects.equals(username, key.username)
+          && dataCenter == key.dataCenter
+          && Objects.equals(proxyName, key.proxyName)
+          && Objects.equals(proxyUserName, key.proxyUserName)
+          && Objects.equals(noProxyHost, key.noProxyHost)
+          && Objects.equals(proxyPasswordDigest, key.proxyPasswordDigest);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(credentialsId, username, dataCenter, proxyName, proxyPort);
+    }
+  }
+
+  /**
+   * Closes every client when the proxy configuration is saved, clients built for the old proxy are
+   * never handed out again. Credential changes need no invalidation, the secret is checked on each
+   * {@link #get}.
+   */
+  @Extension
+  public static final class InvalidationListener extends SaveableListener {
+    @Override
+    public void onChange(Saveable o, XmlFile file) {
+      if (o instanceof ProxyConfiguration) {
+        invalidateAll();
+      }
+    }
+  }
+}
@@ -0,0 +1,316 @@
+package hudson.plugins.sauce_ondemand;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import jenkins.util.SystemProperties;
+import okhttp3.Response;
+
+/**
+ * Per account token buckets shared by every Sauce REST request the plugin makes.
+ *
+ * <p>Each request takes a token from the bucket of its account before it is sent. Sauce's
+ * {@code Retry-After} and {@code X-Ratelimit-*} response headers pause the bucket until the server
+ * says more requests are allowed, so bursts of job updates slow down instead of failing with 429.
+ *
+ * <p>Calls made through {@link AsyncSauceREST} take their token before they are given a thread, see
+ * {@link #tryAcquire}, and are put back in the queue instead of sleeping on the thread when the
+ * account runs out of tokens part way through the call, see {@link RateLimitedException}. Only
+ * callers outside that pool block in {@link #acquire}.
+ */
+public final class SauceRateLimiter {
+
+  private static final Logger logger = Logger.getLogger(SauceRateLimiter.class.getName());
+
+  static final String ANONYMOUS = "anonymous";
+
+  /** Sustained requests per second allowed for one account. */
+  static final double REQUESTS_PER_SECOND =
+      Double.parseDouble(
+          SystemProperties.getString(
+              SauceRateLimiter.class.getName() + ".requestsPerSecond", "10"));
+
+  /** Requests one account may send in a burst before being throttled to the sustained rate. */
+  static final int BURST =
+      SystemProperties.getInteger(SauceRateLimiter.class.getName() + ".burst", 20);
+
+  /** Longest pause requested by the server that will be honoured for a single request. */
+  static final long MAX_PAUSE_MILLIS =
+      TimeUnit.SECONDS.toMillis(
+          SystemProperties.getLong(SauceRateLimiter.class.getName() + ".maxPauseSeconds", 60L));
+
+  private static final ConcurrentMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+  private static final AtomicLong throttledNanos = new AtomicLong();
+  private static final AtomicLong throttledRequests = new AtomicLong();
+  private static final AtomicLong rateLimitedResponses = new AtomicLong();
+
+  /**
+   * Set while an admitted call runs: the tokens it still holds and the number of requests it made.
+   */
+  private static final ThreadLocal<int[]> admission = new ThreadLocal<>();
+
+  private SauceRateLimiter() {}
+
+  /**
+   * Thrown instead of waiting when an admitted call runs out of tokens, so that {@link
+   * AsyncSauceREST} can run the call again once the account may send requests.
+   */
+  static final class RateLimitedException extends IOException {
+    RateLimitedException(String account) {
+      super("Sauce REST rate limit reached for " + accountName(account));
+    }
+  }
+
+  /**
+   * Takes tokens for the account without waiting.
+   *
+   * @param account Sauce username, may be null
+   * @param permits number of tokens to take, at most {@link #BURST} are taken
+   * @return 0 if the tokens were taken, otherwise the nanoseconds to wait before trying again
+   */
+  static long tryAcquire(String account, int permits) {
+    return bucket(account).tryAcquire(System.nanoTime(), Math.min(permits, BURST));
+  }
+
+  /**
+   * Counts time a call was held back before being admitted.
+   *
+   * @param waitNanos time until the call is tried again
+   * @param first whether this is the first time the call is held back
+   */
+  static void throttled(long waitNanos, boolean first) {
+    throttledNanos.addAndGet(waitNanos);
+    if (first) {
+      throttledRequests.incrementAndGet();
+    }
+  }
+
+  /**
+   * Runs a call which already took its tokens through {@link #tryAcquire(String, int)}.
+   *
+   * @param permits number of tokens taken for the call
+   * @param call the admitted call
+   */
+  static void runAdmitted(int permits, Runnable call) {
+    admission.set(new int[] {permits, 0});
+    try {
+      call.run();
+    } finally {
+      admission.remove();
+    }
+  }
+
+  /** @return whether the current thread runs a call admitted through {@link #runAdmitted} */
+  static boolean isAdmitted() {
+    return admission.get() != null;
+  }
+
+  /** @return number of requests the admitted call on the current thread made so far */
+  static int getAdmittedRequests() {
+    int[] state = admission.get();
+    return state == null ? 0 : state[1];
+  }
+
+  /**
+   * Takes a token for a request made by an admitted call, never waiting.
+   *
+   * @param account Sauce username, may be null
+   * @throws RateLimitedException the account has no token left, the call should be run again later
+   */
+  static void acquireAdmitted(String account) throws RateLimitedException {
+    int[] state = admission.get();
+    state[1]++;
+    if (state[0] > 0) {
+      // taken when the call was admitted
+      state[0]--;
+      return;
+    }
+    if (tryAcquire(account, 1) > 0) {
+      throw new RateLimitedException(account);
+    }
+  }
+
+  /**
+   * Blocks until the account may send another request.
+   *
+   * @param account Sauce username, may be null
+   * @throws InterruptedIOException the thread was interrupted while waiting
+   */
+  static void acquire(String account) throws InterruptedIOException {
+    Bucket bucket = bucket(account);
+    long waited = 0;
+    long waitNanos;
+    while ((waitNanos = bucket.tryAcquire(System.nanoTime(), 1)) > 0) {
+      try {
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for Sauce REST rate limit");
+      }
+      waited += waitNanos;
+    }
+    if (waited > 0) {
+      throttledNanos.addAndGet(waited);
+      throttledRequests.incrementAndGet();
+    }
+  }
+
+  /**
+   * Applies the rate limit headers of a response to the account's bucket.
+   *
+   * @param account Sauce username, may be null
+   * @param response response received from Sauce
+   */
+  static void observe(String account, Response response) {
+    long pauseMillis = 0;
+    if (response.code() == 429) {
+      rateLimitedResponses.incrementAndGet();
+      pauseMillis = parseRetryAfter(response.header("Retry-After"), System.currentTimeMillis());
+      if (pauseMillis <= 0) {
+        pauseMillis = TimeUnit.SECONDS.toMillis(1);
+      }
+    } else if ("0".equals(response.header("X-Ratelimit-Remaining"))) {
+      pauseMillis = parseReset(response.header("X-Ratelimit-Reset"), System.currentTimeMillis());
+    }
+    if (pauseMillis > 0) {
+      pauseMillis = Math.min(pauseMillis, MAX_PAUSE_MILLIS);
+      logger.fine(
+          "Sauce rate limit reached for " + accountName(account) + ", pausing " + pauseMillis + "ms");
+      bucket(account).pause(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pauseMillis));
+    }
+  }
+
+  /**
+   * @param value {@code Retry-After} header, either delay seconds or an HTTP date
+   * @param now current time in milliseconds
+   * @return delay in milliseconds, 0 if absent or unparseable
+   */
+  static long parseRetryAfter(String value, long now) {
+    if (value == null || value.trim().isEmpty()) {
+      return 0;
+    }
+    value = value.trim();
+    try {
+      return Math.max(0, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+    } catch (NumberFormatException e) {
+      // not delay seconds, try an HTTP date
+    }
+    try {
+      long at =
+          ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)
+              .toInstant()
+              .toEpochMilli();
+      return Math.max(0, at - now);
+    } catch (DateTimeParseException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * @param value {@code X-Ratelimit-Reset} header, either epoch seconds or seconds from now
+   * @param now current time in milliseconds
+   * @return delay in milliseconds, 0 if absent or unparseable
+   */
+  static long parseReset(String value, long now) {
+    if (value == null || value.trim().isEmpty()) {
+      return 0;
+    }
+    long seconds;
+    try {
+      seconds = (long) Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+    // anything past 2001 is an absolute epoch timestamp rather than a delay
+    if (seconds > 1_000_000_000L) {
+      return Math.max(0, TimeUnit.SECONDS.toMillis(seconds) - now);
+    }
+    return Math.max(0, TimeUnit.SECONDS.toMillis(seconds));
+  }
+
+  /** @return total time requests spent waiting for a token, in milliseconds */
+  public static long getThrottledMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(throttledNanos.get());
+  }
+
+  /** @return number of requests which had to wait for a token */
+  public static long getThrottledRequests() {
+    return throttledRequests.get();
+  }
+
+  /** @return number of 429 responses received from Sauce */
+  public static long getRateLimitedResponses() {
+    return rateLimitedResponses.get();
+  }
+
+  /** @return remaining pause, in milliseconds, for every account currently paused by Sauce */
+  public static Map<String, Long> getPausedAccounts() {
+    Map<String, Long> paused = new TreeMap<>();
+    long now = System.nanoTime();
+    for (Map.Entry<String, Bucket> entry : buckets.entrySet()) {
+      long remaining = entry.getValue().pausedUntil - now;
+      if (remaining > 0) {
+        paused.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(remaining));
+      }
+    }
+    return paused;
+  }
+
+  static void reset() {
+    buckets.clear();
+    throttledNanos.set(0);
+    throttledRequests.set(0);
+    rateLimitedResponses.set(0);
+  }
+
+  private static String accountName(String account) {
+    return account == null || account.isEmpty() ? ANONYMOUS : account;
+  }
+
+  private static Bucket bucket(String account) {
+    return buckets.computeIfAbsent(accountName(account), k -> new Bucket());
+  }
+
+  static final class Bucket {
+    private final double nanosPerToken = TimeUnit.SECONDS.toNanos(1) / REQUESTS_PER_SECOND;
+    private double tokens = BURST;
+    private long lastRefill = System.nanoTime();
+    private volatile long pausedUntil = lastRefill;
+
+    /** @return 0 if a token was taken, otherwise the nanoseconds to wait before trying again */
+    long tryAcquire(long now) {
+      return tryAcquire(now, 1);
+    }
+
+    /** @return 0 if the tokens were taken, otherwise the nanoseconds to wait before trying again */
+    synchronized long tryAcquire(long now, int permits) {
+      if (pausedUntil - now > 0) {
+        return pausedUntil - now;
+      }
+      tokens = Math.min(BURST, tokens + (now - lastRefill) / nanosPerToken);
+      lastRefill = now;
+      if (tokens >= permits) {
+        tokens -= permits;
+        return 0;
+      }
+      return (long) Math.ceil((permits - tokens) * nanosPerToken);
+    }
+
+    synchronized void pause(long until) {
+      if (until - pausedUntil > 0) {
+        pausedUntil = until;
+      }
+      // the server already counted the requests we think we have left
+      tokens = 0;
+    }
+  }
+}
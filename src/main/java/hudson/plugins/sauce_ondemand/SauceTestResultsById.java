@@ -1,7 +1,5 @@
 package hudson.plugins.sauce_ondemand;
 
-import com.saucelabs.saucerest.DataCenter;
-import com.saucelabs.saucerest.api.JobsEndpoint;
 import com.saucelabs.saucerest.model.jobs.Job;
 import hudson.plugins.sauce_ondemand.credentials.SauceCredentials;
 import java.io.IOException;
@@ -26,9 +24,8 @@ public class SauceTestResultsById {
     this.credentials = credentials;
     this.job = new JenkinsJobInformation(id, credentials.getHMAC(id));
     this.server = credentials.getRestEndpoint().replace("https://", "https://app.");
-    JobsEndpoint jobs = sauceREST.getJobsEndpoint();
     try {
-      Job job = jobs.getJobDetails(id);
+      Job job = AsyncSauceREST.await(new AsyncSauceREST(sauceREST).getJobDetails(id));
       this.job.populate(job);
     } catch (JSONException | IOException e) {
       logger.log(Level.WARNING, "Unable to retrieve Job data from Sauce Labs", e);
@@ -36,16 +33,7 @@ public class SauceTestResultsById {
   }
 
   public SauceTestResultsById(String id, SauceCredentials credentials) {
-    this(
-        id,
-        credentials,
-        new JenkinsSauceREST(
-            credentials.getUsername(),
-            credentials.getPassword().getPlainText(),
-            DataCenter.fromString(credentials.getRestEndpointName()),
-            Jenkins.get().getProxy()
-        )
-    );
+    this(id, credentials, credentials.getSauceREST(Jenkins.get().getProxy()));
   }
 
   public String getId() {
@@ -0,0 +1,43 @@
+package hudson.plugins.sauce_ondemand;
+
+import hudson.Util;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import jenkins.MasterToSlaveFileCallable;
+import org.apache.tools.ant.DirectoryScanner;
+
+/**
+ * Scans test report and output files in the workspace for session ids, on whichever node holds
+ * the workspace. Only the session ids found are sent back, one per job id in the order first seen,
+ * so neither the files nor their size cross the remoting channel.
+ */
+public class SessionIdFileScanner extends MasterToSlaveFileCallable<List<TestIDDetails>> {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String includes;
+
+  /**
+   * @param includes Ant style patterns, relative to the workspace, of the files to scan
+   */
+  public SessionIdFileScanner(String includes) {
+    this.includes = includes;
+  }
+
+  @Override
+  public List<TestIDDetails> invoke(File workspace, VirtualChannel channel) throws IOException {
+    SessionIdSet found = new SessionIdSet();
+    DirectoryScanner scanner = Util.createFileSet(workspace, includes).getDirectoryScanner();
+    for (String path : scanner.getIncludedFiles()) {
+      try (InputStream in = Files.newInputStream(new File(workspace, path).toPath())) {
+        SessionIdScanner.scan(in, StandardCharsets.UTF_8, found::add);
+      }
+    }
+    return found.toList();
+  }
+}
@@ -0,0 +1,103 @@
+package hudson.plugins.sauce_ondemand;
+
+import hudson.console.ConsoleLogFilter;
+import hudson.model.Run;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+
+/**
+ * Picks {@code SauceOnDemandSessionID=} markers out of the console as the build writes it, and
+ * records them on the build's {@link SauceOnDemandBuildAction} so that the jobs can be shown while
+ * the build is still running.
+ *
+ * <p>The log passes through unchanged. Only the output of the wrapped steps is seen, and nothing
+ * is captured when a pipeline applies the filter on an agent, as the build action is not reachable
+ * from there; this is logged on the agent. The publisher still scans the console log afterwards
+ * and adds the captured ids it did not find there, so no ids are lost, they only show up later.
+ */
+public class SessionIdLogFilter extends ConsoleLogFilter implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger logger = Logger.getLogger(SessionIdLogFilter.class.getName());
+
+  private final String runId;
+
+  public SessionIdLogFilter(Run<?, ?> run) {
+    this.runId = run.getExternalizableId();
+  }
+
+  @Override
+  public OutputStream decorateLogger(Run build, OutputStream logger) {
+    if (build == null) {
+      if (Jenkins.getInstanceOrNull() == null) {
+        // running on an agent, the action is not reachable from here
+        SessionIdLogFilter.logger.info(
+            "Not capturing Sauce session ids of "
+                + runId
+                + " on this agent, they are found when the console log is published");
+        return logger;
+      }
+      build = Run.fromExternalizableId(runId);
+    }
+    SauceOnDemandBuildAction action = SauceOnDemandBuildAction.getSauceBuildAction(build);
+    if (action == null) {
+      return logger;
+    }
+    return new CapturingOutputStream(logger, build.getCharset(), action);
+  }
+
+  private static final class CapturingOutputStream extends FilterOutputStream {
+    private final SessionIdScanner scanner;
+
+    // bytes written one at a time, scanned once the buffer fills up or a bulk write comes along
+    private final byte[] pending = new byte[256];
+    private int pendingLength;
+
+    CapturingOutputStream(OutputStream out, Charset charset, SauceOnDemandBuildAction action) {
+      super(out);
+      this.scanner = new SessionIdScanner(charset, action::addLiveSessionId);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      pending[pendingLength++] = (byte) b;
+      if (pendingLength == pending.length || b == '\n') {
+        scanPending();
+      }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      scanPending();
+      scanner.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      scanPending();
+      super.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      scanPending();
+      scanner.finish();
+      super.close();
+    }
+
+    private void scanPending() {
+      if (pendingLength > 0) {
+        scanner.write(pending, 0, pendingLength);
+        pendingLength = 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package hudson.plugins.sauce_ondemand;
+
+import hudson.console.ConsoleNote;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Finds {@code SauceOnDemandSessionID=} markers in raw log bytes.
+ *
+ * <p>Bytes are matched against the literal marker as they stream past, and only the remainder of a
+ * line containing it is decoded and run through {@link TestIDDetails#SESSION_ID_PATTERN}, so the
+ * scanner uses constant memory however large the log is. Jenkins console notes are stripped from
+ * candidate lines before matching. As with {@link SauceOnDemandReportPublisher#processSessionIds},
+ * {@code \n} and {@code \r} both end a line and only the first marker of a line is reported.
+ */
+public final class SessionIdScanner {
+
+  static final String MARKER = "SauceOnDemandSessionID=";
+
+  private static final byte[] MARKER_BYTES = MARKER.getBytes(StandardCharsets.US_ASCII);
+
+  /** Partial match table of {@link #MARKER_BYTES}. */
+  private static final int[] FAILURE = failureTable(MARKER_BYTES);
+
+  /** Longest candidate line kept, anything after this is dropped from the job name. */
+  static final int MAX_CANDIDATE_BYTES = 8192;
+
+  private final Charset charset;
+  private final Consumer<TestIDDetails> sink;
+
+  private int matched;
+  private boolean capturing;
+  private byte[] candidate = new byte[256];
+  private int candidateLength;
+
+  /**
+   * @param charset charset of the log
+   * @param sink receives every session id found, in log order
+   */
+  public SessionIdScanner(Charset charset, Consumer<TestIDDetails> sink) {
+    this.charset = charset;
+    this.sink = sink;
+  }
+
+  /**
+   * Scans a whole stream, which may be gzip compressed.
+   *
+   * @param in log to scan, closed by the caller
+   * @param charset charset of the log
+   * @param sink receives every session id found, in log order
+   * @throws IOException failed to read the log
+   */
+  public static void scan(InputStream in, Charset charset, Consumer<TestIDDetails> sink)
+      throws IOException {
+    InputStream input = new BufferedInputStream(in, 65536);
+    input.mark(2);
+    int first = input.read();
+    int second = input.read();
+    input.reset();
+    if (first == 0x1f && second == 0x8b) {
+      input = new GZIPInputStream(input, 65536);
+    }
+    SessionIdScanner scanner = new SessionIdScanner(charset, sink);
+    byte[] buffer = new byte[65536];
+    int read;
+    while ((read = input.read(buffer)) != -1) {
+      scanner.write(buffer, 0, read);
+    }
+    scanner.finish();
+  }
+
+  /**
+   * Feeds the next bytes of the log.
+   *
+   * @param b buffer
+   * @param off offset of the first byte
+   * @param len number of bytes
+   */
+  public void write(byte[] b, int off, int len) {
+    int end = off + len;
+    for (int i = off; i < end; i++) {
+      byte c = b[i];
+      if (c == '\n' || c == '\r') {
+        endLine();
+        continue;
+      }
+      if (capturing) {
+        capture(c);
+        continue;
+      }
+      while (matched > 0 && c != MARKER_BYTES[matched]) {
+        matched = FAILURE[matched - 1];
+      }
+      if (c == MARKER_BYTES[matched]) {
+        matched++;
+      }
+      if (matched == MARKER_BYTES.length) {
+        capturing = true;
+        matched = 0;
+        candidateLength = 0;
+        for (byte m : MARKER_BYTES) {
+          capture(m);
+        }
+      }
+    }
+  }
+
+  /** Reports a marker on the last line of the log, if it had no line terminator. */
+  public void finish() {
+    endLine();
+  }
+
+  private void capture(byte c) {
+    if (candidateLength == MAX_CANDIDATE_BYTES) {
+      return;
+    }
+    if (candidateLength == candidate.length) {
+      candidate = Arrays.copyOf(candidate, Math.min(MAX_CANDIDATE_BYTES, candidate.length * 2));
+    }
+    candidate[candidateLength++] = c;
+  }
+
+  private void endLine() {
+    matched = 0;
+    if (!capturing) {
+      return;
+    }
+    capturing = false;
+    String line = ConsoleNote.removeNotes(new String(candidate, 0, candidateLength, charset));
+    candidateLength = 0;
+    TestIDDetails details = TestIDDetails.processString(line);
+    if (details != null) {
+      sink.accept(details);
+    }
+  }
+
+  private static int[] failureTable(byte[] pattern) {
+    int[] table = new int[pattern.length];
+    int k = 0;
+    for (int i = 1; i < pattern.length; i++) {
+      while (k > 0 && pattern[i] != pattern[k]) {
+        k = table[k - 1];
+      }
+      if (pattern[i] == pattern[k]) {
+        k++;
+      }
+      table[i] = k;
+    }
+    return table;
+  }
+}
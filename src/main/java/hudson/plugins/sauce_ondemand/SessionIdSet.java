@@ -0,0 +1,68 @@
+package hudson.plugins.sauce_ondemand;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session ids in the order they were first seen, one per Sauce job. The same id usually turns up
+ * in the console, the suite output and the case output; later sightings only contribute a job name
+ * if none was known yet, and are counted as duplicates.
+ */
+final class SessionIdSet implements Iterable<TestIDDetails> {
+
+  private final Map<String, TestIDDetails> ids = new LinkedHashMap<String, TestIDDetails>();
+  private int duplicates;
+
+  /**
+   * @param details session id to add
+   * @return true if the job had not been seen before
+   */
+  boolean add(TestIDDetails details) {
+    TestIDDetails existing = ids.get(details.getJobId());
+    if (existing == null) {
+      ids.put(details.getJobId(), details);
+      return true;
+    }
+    duplicates++;
+    if (existing.getJobName() == null && details.getJobName() != null) {
+      // keeps the job's original position
+      ids.put(details.getJobId(), details);
+    }
+    return false;
+  }
+
+  /**
+   * @param jobId Sauce job id
+   * @return true if the job has been seen
+   */
+  boolean contains(String jobId) {
+    return ids.containsKey(jobId);
+  }
+
+  void addAll(Iterable<TestIDDetails> details) {
+    for (TestIDDetails d : details) {
+      add(d);
+    }
+  }
+
+  /** @return number of sightings of a job which had already been seen */
+  int getDuplicates() {
+    return duplicates;
+  }
+
+  int size() {
+    return ids.size();
+  }
+
+  List<TestIDDetails> toList() {
+    return new ArrayList<TestIDDetails>(ids.values());
+  }
+
+  @Override
+  public Iterator<TestIDDetails> iterator() {
+    return ids.values().iterator();
+  }
+}
@@ -1,13 +1,16 @@
 package hudson.plugins.sauce_ondemand;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.Serializable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Created by gavinmogan on 2016-04-20.
  */
-public class TestIDDetails {
+public class TestIDDetails implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     public static final Pattern SESSION_ID_PATTERN = Pattern.compile("SauceOnDemandSessionID=([0-9a-fA-F]+)(?:.job-name=(.*))?");
     private final String jobId;
     private final String jobName;
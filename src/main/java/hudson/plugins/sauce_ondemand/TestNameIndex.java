@@ -0,0 +1,216 @@
+package hudson.plugins.sauce_ondemand;
+
+import hudson.tasks.junit.CaseResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Index over the test cases of a build, answering which cases a Sauce job name matches without
+ * comparing the name against every case.
+ *
+ * <p>A case matches a job name if the name equals the case's full name, if the name contains the
+ * case's display name, or, depending on the rule asked for, if the case's full name ends with or
+ * contains the name. Full names are kept in a hash map, display names in a hash map per length so
+ * the windows of the job name can be looked up, reversed full names in a sorted array for the
+ * suffix rule, and trigrams of full names in an inverted index for the substring rule.
+ */
+final class TestNameIndex {
+
+  /** How the full name of a case has to relate to the job name, beyond being equal to it. */
+  enum Rule {
+    /** The full name ends with the job name, as {@link SauceOnDemandReportFactory} matches. */
+    ENDS_WITH,
+    /** The full name contains the job name, as {@link SauceOnDemandReportPublisher} matches. */
+    CONTAINS
+  }
+
+  private static final int GRAM = 3;
+
+  private final CaseResult[] cases;
+  private final Map<String, Positions> fullNames = new HashMap<String, Positions>();
+  private final Map<String, Positions> displayNames = new HashMap<String, Positions>();
+  private final int[] displayNameLengths;
+  private final String[] reversedFullNames;
+  private final int[] reversedPositions;
+  private final Map<String, Positions> grams = new HashMap<String, Positions>();
+
+  /** @param cases test cases, in the order matches are preferred */
+  TestNameIndex(Collection<CaseResult> cases) {
+    this.cases = cases.toArray(new CaseResult[0]);
+    TreeSet<Integer> lengths = new TreeSet<Integer>();
+    List<Integer> withFullName = new ArrayList<Integer>();
+    for (int i = 0; i < this.cases.length; i++) {
+      String fullName = this.cases[i].getFullName();
+      String displayName = this.cases[i].getDisplayName();
+      if (fullName != null) {
+        positions(fullNames, fullName).add(i);
+        withFullName.add(i);
+        for (int g = 0; g + GRAM <= fullName.length(); g++) {
+          positions(grams, fullName.substring(g, g + GRAM)).add(i);
+        }
+      }
+      if (displayName != null) {
+        positions(displayNames, displayName).add(i);
+        lengths.add(displayName.length());
+      }
+    }
+    displayNameLengths = new int[lengths.size()];
+    int l = 0;
+    for (int length : lengths) {
+      displayNameLengths[l++] = length;
+    }
+
+    Integer[] order = withFullName.toArray(new Integer[0]);
+    String[] reversed = new String[this.cases.length];
+    for (int i : order) {
+      reversed[i] = new StringBuilder(this.cases[i].getFullName()).reverse().toString();
+    }
+    Arrays.sort(order, (a, b) -> reversed[a].compareTo(reversed[b]));
+    reversedFullNames = new String[order.length];
+    reversedPositions = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      reversedFullNames[i] = reversed[order[i]];
+      reversedPositions[i] = order[i];
+    }
+  }
+
+  /**
+   * @param jobName Sauce job name
+   * @param rule how full names are matched
+   * @return the first case the job name matches, null if none does
+   */
+  CaseResult firstMatch(String jobName, Rule rule) {
+    BitSet matches = match(jobName, rule);
+    int first = matches.nextSetBit(0);
+    return first < 0 ? null : cases[first];
+  }
+
+  /**
+   * @param jobName Sauce job name
+   * @param rule how full names are matched
+   * @return every case the job name matches, in order
+   */
+  List<CaseResult> matches(String jobName, Rule rule) {
+    BitSet matches = match(jobName, rule);
+    List<CaseResult> result = new ArrayList<CaseResult>(matches.cardinality());
+    for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+      result.add(cases[i]);
+    }
+    return result;
+  }
+
+  private BitSet match(String jobName, Rule rule) {
+    BitSet matches = new BitSet(cases.length);
+    if (jobName == null) {
+      return matches;
+    }
+
+    // the job name equals the full name
+    Positions equal = fullNames.get(jobName);
+    if (equal != null) {
+      equal.addTo(matches);
+    }
+
+    // the job name contains the display name
+    for (int length : displayNameLengths) {
+      if (length > jobName.length()) {
+        break;
+      }
+      for (int i = 0; i + length <= jobName.length(); i++) {
+        Positions contained = displayNames.get(jobName.substring(i, i + length));
+        if (contained != null) {
+          contained.addTo(matches);
+        }
+      }
+    }
+
+    if (rule == Rule.ENDS_WITH) {
+      String reversed = new StringBuilder(jobName).reverse().toString();
+      int from = lowerBound(reversed);
+      for (int i = from;
+          i < reversedFullNames.length && reversedFullNames[i].startsWith(reversed);
+          i++) {
+        matches.set(reversedPositions[i]);
+      }
+    } else {
+      Positions candidates = null;
+      if (jobName.length() >= GRAM) {
+        for (int g = 0; g + GRAM <= jobName.length(); g++) {
+          Positions p = grams.get(jobName.substring(g, g + GRAM));
+          if (p == null) {
+            // no full name has this trigram, so none contains the job name
+            return matches;
+          }
+          if (candidates == null || p.size < candidates.size) {
+            candidates = p;
+          }
+        }
+        for (int c = 0; c < candidates.size; c++) {
+          int i = candidates.values[c];
+          if (cases[i].getFullName().contains(jobName)) {
+            matches.set(i);
+          }
+        }
+      } else {
+        for (int i = 0; i < cases.length; i++) {
+          String fullName = cases[i].getFullName();
+          if (fullName != null && fullName.contains(jobName)) {
+            matches.set(i);
+          }
+        }
+      }
+    }
+    return matches;
+  }
+
+  private int lowerBound(String key) {
+    int low = 0;
+    int high = reversedFullNames.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (reversedFullNames[mid].compareTo(key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private static Positions positions(Map<String, Positions> map, String key) {
+    Positions p = map.get(key);
+    if (p == null) {
+      p = new Positions();
+      map.put(key, p);
+    }
+    return p;
+  }
+
+  /** Ascending case positions without boxing. */
+  private static final class Positions {
+    private int[] values = new int[1];
+    private int size;
+
+    void add(int position) {
+      if (size > 0 && values[size - 1] == position) {
+        return;
+      }
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = position;
+    }
+
+    void addTo(BitSet set) {
+      for (int i = 0; i < size; i++) {
+        set.set(values[i]);
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package hudson.plugins.sauce_ondemand.credentials;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import jenkins.util.SystemProperties;
+
+/**
+ * Remembers which {@link SauceCredentials} an item resolves a credentials id to, so that pages and
+ * job loops do not scan every credentials store up the folder hierarchy on each lookup.
+ *
+ * <p>Entries are dropped whenever the system, a folder or a user credentials store is saved, an
+ * item is moved or deleted, and in any case after {@link #TTL_SECONDS}. Stores which are not saved
+ * through Jenkins, such as those backed by an external secret manager, are only picked up again
+ * once the entry expires. Failed lookups are not cached.
+ */
+public final class CredentialsLookupCache {
+
+  /** Longest time a resolved credential is reused without looking it up again. */
+  static final long TTL_SECONDS =
+      SystemProperties.getLong(CredentialsLookupCache.class.getName() + ".ttlSeconds", 300L);
+
+  private static final Cache<Key, SauceCredentials> cache =
+      CacheBuilder.newBuilder()
+          .maximumSize(10000)
+          .expireAfterWrite(TTL_SECONDS, TimeUnit.SECONDS)
+          .build();
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+  private static final AtomicLong missNanos = new AtomicLong();
+
+  private CredentialsLookupCache() {}
+
+  /**
+   * @param context item the credentials are looked up for, may be null
+   * @param id credentials id
+   * @param lookup the uncached lookup
+   * @return the cached credentials, or the result of the lookup
+   */
+  static SauceCredentials get(Item context, String id, Supplier<SauceCredentials> lookup) {
+    Key key = new Key(context == null ? "" : context.getFullName(), id);
+    SauceCredentials credentials = cache.getIfPresent(key);
+    if (credentials != null) {
+      hits.incrementAndGet();
+      return credentials;
+    }
+    long started = System.nanoTime();
+    credentials = lookup.get();
+    missNanos.addAndGet(System.nanoTime() - started);
+    misses.incrementAndGet();
+    if (credentials != null) {
+      cache.put(key, credentials);
+    }
+    return credentials;
+  }
+
+  /** Drops every cached lookup. */
+  public static void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /** @return lookups answered from the cache */
+  public static long getHits() {
+    return hits.get();
+  }
+
+  /** @return lookups which had to scan the credentials stores */
+  public static long getMisses() {
+    return misses.get();
+  }
+
+  /** @return estimated lookup time saved by the cache, in milliseconds */
+  public static long getSavedMillis() {
+    long missCount = misses.get();
+    if (missCount == 0) {
+      return 0;
+    }
+    return TimeUnit.NANOSECONDS.toMillis(missNanos.get() / missCount * hits.get());
+  }
+
+  /** Items which are renamed, moved or deleted may see different credentials stores. */
+  @Extension
+  public static final class ItemInvalidator extends ItemListener {
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+      invalidateAll();
+    }
+
+    @Override
+    public void onDeleted(Item item) {
+      invalidateAll();
+    }
+  }
+
+  private static final class Key {
+    private final String itemName;
+    private final String id;
+
+    Key(String itemName, String id) {
+      this.itemName = itemName;
+      this.id = id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) o;
+      return Objects.equals(itemName, that.itemName) && Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(itemName, id);
+    }
+  }
+}
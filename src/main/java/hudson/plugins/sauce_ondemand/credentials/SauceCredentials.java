@@ -8,6 +8,7 @@ import com.cloudbees.plugins.credentials.CredentialsDescriptor;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.CredentialsStore;
 import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
@@ -15,13 +16,16 @@ import com.cloudbees.plugins.credentials.domains.Domain;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.cloudbees.plugins.credentials.domains.HostnamePortRequirement;
 import com.cloudbees.plugins.credentials.impl.BaseStandardCredentials;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.saucelabs.saucerest.DataCenter;
 import com.saucelabs.saucerest.SauceShareableLink;
-import com.saucelabs.saucerest.api.AccountsEndpoint;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.ProxyConfiguration;
+import hudson.Util;
+import hudson.XmlFile;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.AbstractProject;
@@ -29,9 +33,15 @@ import hudson.model.BuildableItemWithBuildWrappers;
 import hudson.model.Descriptor;
 import hudson.model.Item;
 import hudson.model.ItemGroup;
+import hudson.model.ModelObject;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import hudson.plugins.sauce_ondemand.AsyncSauceREST;
 import hudson.plugins.sauce_ondemand.BuildUtils;
 import hudson.plugins.sauce_ondemand.JenkinsSauceREST;
 import hudson.plugins.sauce_ondemand.SauceOnDemandBuildWrapper;
+import hudson.plugins.sauce_ondemand.SauceRESTRegistry;
 import hudson.security.ACL;
 import hudson.util.FormValidation;
 import hudson.util.Secret;
@@ -41,8 +51,11 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
@@ -81,6 +94,8 @@ public class SauceCredentials extends BaseStandardCredentials implements Standar
     @DataBoundSetter
     public void setShortLivedConfig(ShortLivedConfig shortLivedConfig) {
         this.shortLivedConfig = shortLivedConfig;
+        this.keyFingerprint = null;
+        this.token = null;
     }
 
     public static SauceCredentials getCredentials(AbstractProject project) {
@@ -102,26 +117,68 @@ public class SauceCredentials extends BaseStandardCredentials implements Standar
 
     @NonNull
     public Secret getPassword() {
-        if (this.getShortLivedConfig() != null) {
-            try {
-                Date d = new Date();
-                Date expires = new Date(
-                        System.currentTimeMillis() +
-                        (long) this.getShortLivedConfig().getTime() * 1000 /* to millis */ * 60 /* to minutes */
-                        );
+        Token token = currentToken();
+        return token != null ? token.secret : this.getApiKey();
+    }
 
-                String token = JWT.create()
+    /**
+     * Fraction of a short lived token's lifetime after which a new token is signed.
+     */
+    static final double TOKEN_REFRESH_FRACTION = Double.parseDouble(
+        SystemProperties.getString(SauceCredentials.class.getName() + ".tokenRefreshFraction", "0.5"));
+
+    private transient volatile Token token;
+
+    /**
+     * @return the short lived token to use, signing a new one once the current one is past its refresh
+     * time, or null if short lived tokens are not configured
+     */
+    @CheckForNull
+    private Token currentToken() {
+        ShortLivedConfig config = this.getShortLivedConfig();
+        if (config == null || config.getTime() == null) {
+            return null;
+        }
+        Token current = token;
+        long now = System.currentTimeMillis();
+        if (current != null && now < current.refreshAt) {
+            return current;
+        }
+        synchronized (this) {
+            current = token;
+            if (current != null && now < current.refreshAt) {
+                return current;
+            }
+            try {
+                long lifetime = TimeUnit.MINUTES.toMillis(config.getTime());
+                Date expires = new Date(now + lifetime);
+                String signed = JWT.create()
                     .withIssuer("Jenkins/" + Jenkins.VERSION + " JenkinsSauceOnDemand/" + BuildUtils.getCurrentVersion())
                     .withExpiresAt(expires)
-                    .withIssuedAt(d)
+                    .withIssuedAt(new Date(now))
                     .sign(Algorithm.HMAC256(this.apiKey.getPlainText()));
-                return Secret.fromString(token);
+                double fraction = Math.min(1, Math.max(0, TOKEN_REFRESH_FRACTION));
+                current = new Token(Secret.fromString(signed), now, now + (long) (lifetime * fraction));
+                token = current;
+                return current;
             } catch (JWTCreationException e){
                 //Invalid Signing configuration / Couldn't convert Claims.
                 e.printStackTrace();
             }
         }
-        return this.getApiKey();
+        return null;
+    }
+
+    private static final class Token {
+        private final Secret secret;
+        private final long issuedAt;
+        private final long refreshAt;
+
+        Token(Secret secret, long issuedAt, long refreshAt) {
+            this.secret = secret;
+            this.issuedAt = issuedAt;
+            this.refreshAt = refreshAt;
+        }
     }
 
     @NonNull
@@ -189,8 +246,7 @@ public class SauceCredentials extends BaseStandardCredentials implements Standar
 
     public JenkinsSauceREST getSauceREST(ProxyConfiguration proxy) {
         DataCenter dc = DataCenter.fromString(getRestEndpointName());
-        JenkinsSauceREST sauceREST = new JenkinsSauceREST(getUsername(), getPassword().getPlainText(), dc, proxy);
-        return sauceREST;
+        return SauceRESTRegistry.get(getId(), getUsername(), getPassword().getPlainText(), dc, proxy);
     }
 
     @Extension
@@ -209,11 +265,11 @@ public class SauceCredentials extends BaseStandardCredentials implements Standar
 
             DataCenter dc = DataCenter.fromString(dataCenter);
 
-            JenkinsSauceREST rest = new JenkinsSauceREST(username, value, dc, Jenkins.get().getProxy());
-            AccountsEndpoint users = rest.getAccountsEndpoint();
+            JenkinsSauceREST rest = SauceRESTRegistry.get(username, value, dc, Jenkins.get().getProxy());
             // If unauthorized getUser returns an empty string.
             try {
-                if (users.getUser("me").username.equals("")) {
+                String user = AsyncSauceREST.await(new AsyncSauceREST(rest).accounts(users -> users.getUser("me").username));
+                if (user.equals("")) {
                     return FormValidation.error("Bad username or Access key");
                 }
             } catch (IOException|com.saucelabs.saucerest.SauceException.NotAuthorized e) {
@@ -294,10 +350,10 @@ public class SauceCredentials extends BaseStandardCredentials implements Standar
     }
 
     public static SauceCredentials getCredentialsById(Item context, String id) {
-        return CredentialsMatchers.firstOrNull(
+        return CredentialsLookupCache.get(context, id, () -> CredentialsMatchers.firstOrNull(
             SauceCredentials.all((Item) context),
             CredentialsMatchers.withId(id)
-        );
+        ));
     }
 
 
@@ -319,7 +375,107 @@ public class SauceCredentials extends BaseStandardCredentials implements Standar
      *
      */
     public String getHMAC(String jobId) {
-        return SauceShareableLink.getJobAuthDigest(username, getPassword().getPlainText(), jobId);
+        Token token = currentToken();
+        HmacKey key = new HmacKey(getId(), getKeyFingerprint(token), jobId);
+        String hmac = HMAC_CACHE.getIfPresent(key);
+        if (hmac == null) {
+            Secret password = token != null ? token.secret : this.getApiKey();
+            hmac = SauceShareableLink.getJobAuthDigest(username, password.getPlainText(), jobId);
+            HMAC_CACHE.put(key, hmac);
+        }
+        return hmac;
+    }
+
+    /**
+     * Job auth digests, which are requested for every job on every results page.
+     */
+    private static final Cache<HmacKey, String> HMAC_CACHE = CacheBuilder.newBuilder()
+        .maximumSize(10000)
+        .expireAfterAccess(1, TimeUnit.HOURS)
+        .build();
+
+    private transient volatile String keyFingerprint;
+
+    /**
+     * @param token short lived token the HMACs are signed with, if any
+     * @return a digest identifying the username, access key and short lived setting the HMACs of this
+     * credential are computed from, plus the token when short lived tokens are used
+     */
+    private String getKeyFingerprint(@CheckForNull Token token) {
+        String fingerprint = keyFingerprint;
+        if (fingerprint == null) {
+            Integer time = shortLivedConfig != null ? shortLivedConfig.getTime() : null;
+            fingerprint = Util.getDigestOf(username + ":" + apiKey.getPlainText() + ":" + time);
+            keyFingerprint = fingerprint;
+        }
+        // each new token signs different digests
+        return token != null ? fingerprint + "@" + token.issuedAt : fingerprint;
+    }
+
+    /**
+     * Drops every cached job auth digest.
+     */
+    public static void invalidateHmacCache() {
+        HMAC_CACHE.invalidateAll();
+    }
+
+    private static final class HmacKey {
+        private final String credentialsId;
+        private final String fingerprint;
+        private final String jobId;
+
+        HmacKey(String credentialsId, String fingerprint, String jobId) {
+            this.credentialsId = credentialsId;
+            this.fingerprint = fingerprint;
+            this.jobId = jobId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof HmacKey)) return false;
+            HmacKey that = (HmacKey) o;
+            return Objects.equals(credentialsId, that.credentialsId)
+                && Objects.equals(fingerprint, that.fingerprint)
+                && Objects.equals(jobId, that.jobId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(credentialsId, fingerprint, jobId);
+        }
+    }
+
+    /**
+     * Drops cached credential lookups and job auth digests whenever a credentials store is saved:
+     * the system store, the store of a folder (saved with the folder) or of a user (saved with the
+     * user). Other saves, including those of folders without a store of their own, are ignored.
+     */
+    @Extension
+    public static final class CacheInvalidator extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (isCredentialsStore(o)) {
+                CredentialsLookupCache.invalidateAll();
+                invalidateHmacCache();
+            }
+        }
+
+        static boolean isCredentialsStore(Saveable o) {
+            if (o instanceof SystemCredentialsProvider) {
+                return true;
+            }
+            // the system store is saved on its own, not with Jenkins
+            if (o instanceof Jenkins || !(o instanceof ItemGroup || o instanceof User)) {
+                return false;
+            }
+            for (CredentialsStore store : CredentialsProvider.lookupStores((ModelObject) o)) {
+                if (store.getContext() == o) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 
     public static final class ShortLivedConfig extends AbstractDescribableImpl<ShortLivedConfig> implements Serializable {
@@ -0,0 +1,36 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class AdaptiveSliceSizeTest {
+
+  @Test
+  public void testGrowsWhenSauceIsFast() {
+    AdaptiveSliceSize size = new AdaptiveSliceSize();
+    for (int i = 0; i < 20; i++) {
+      size.record(size.get(), size.get(), TimeUnit.MILLISECONDS.toNanos(100));
+    }
+    assertEquals(AdaptiveSliceSize.MAX, size.get());
+  }
+
+  @Test
+  public void testShrinksWhenSauceIsSlow() {
+    AdaptiveSliceSize size = new AdaptiveSliceSize();
+    for (int i = 0; i < 20; i++) {
+      size.record(size.get(), size.get(), TimeUnit.SECONDS.toNanos(10));
+    }
+    assertTrue(size.get() < AdaptiveSliceSize.INITIAL);
+    assertTrue(size.get() >= AdaptiveSliceSize.MIN);
+  }
+
+  @Test
+  public void testTruncatedResponseCapsSize() {
+    AdaptiveSliceSize size = new AdaptiveSliceSize();
+    size.record(20, 12, TimeUnit.MILLISECONDS.toNanos(100));
+    assertEquals(12, size.get());
+  }
+}
@@ -0,0 +1,114 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.saucelabs.saucerest.api.JobsEndpoint;
+import com.saucelabs.saucerest.model.jobs.Job;
+import hudson.plugins.sauce_ondemand.mocks.MockSauceREST;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+
+public class AsyncSauceRESTTest {
+
+  @Test
+  public void testConcurrentIdenticalLookupsShareOneCall() throws Exception {
+    final JenkinsSauceREST mockSauceREST = mock(MockSauceREST.class);
+    final JobsEndpoint mockJobsEndpoint = mock(JobsEndpoint.class);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Job job = new Job();
+    when(mockSauceREST.getJobsEndpoint()).thenReturn(mockJobsEndpoint);
+    when(mockJobsEndpoint.getJobDetails("1234"))
+        .thenAnswer(
+            invocation -> {
+              release.await();
+              return job;
+            });
+
+    AsyncSauceREST async = new AsyncSauceREST(mockSauceREST, AsyncSauceREST.Priority.BACKGROUND);
+    long coalesced = AsyncSauceREST.getCoalescedCalls();
+    CompletableFuture<Job> first = async.getJobDetails("1234");
+    CompletableFuture<Job> second = async.getJobDetails("1234");
+    release.countDown();
+
+    assertSame(job, AsyncSauceREST.await(first));
+    assertSame(job, AsyncSauceREST.await(second));
+    assertEquals(coalesced + 1, AsyncSauceREST.getCoalescedCalls());
+    verify(mockJobsEndpoint, times(1)).getJobDetails("1234");
+  }
+
+  @Test
+  public void testDifferentClientsDoNotShareCalls() throws Exception {
+    final JobsEndpoint mockJobsEndpoint = mock(JobsEndpoint.class);
+    when(mockJobsEndpoint.getJobDetails("5678")).thenReturn(new Job());
+    for (int i = 0; i < 2; i++) {
+      JenkinsSauceREST mockSauceREST = mock(MockSauceREST.class);
+      when(mockSauceREST.getJobsEndpoint()).thenReturn(mockJobsEndpoint);
+      AsyncSauceREST.await(
+          new AsyncSauceREST(mockSauceREST, AsyncSauceREST.Priority.BACKGROUND)
+              .getJobDetails("5678"));
+    }
+    verify(mockJobsEndpoint, times(2)).getJobDetails("5678");
+  }
+
+  @Test
+  public void testAuthFailuresDoNotOpenTheBreaker() throws Exception {
+    final JobsEndpoint mockJobsEndpoint = mock(JobsEndpoint.class);
+    when(mockJobsEndpoint.getJobDetails(anyString()))
+        .thenAnswer(
+            invocation -> {
+              // what the interceptor sees for a bad access key
+              SauceCircuitBreaker.observe(401);
+              throw new IOException("Not authorized");
+            });
+    AsyncSauceREST async = breakerTestClient("auth-failures", mockJobsEndpoint);
+
+    for (int i = 0; i < SauceCircuitBreaker.FAILURE_THRESHOLD * 2; i++) {
+      assertFails(async.getJobDetails("auth-" + i));
+    }
+    assertFalse(SauceCircuitBreaker.forKey("auth-failures").isOpen());
+  }
+
+  @Test
+  public void testServerErrorsOpenTheBreaker() throws Exception {
+    final JobsEndpoint mockJobsEndpoint = mock(JobsEndpoint.class);
+    when(mockJobsEndpoint.getJobDetails(anyString()))
+        .thenAnswer(
+            invocation -> {
+              SauceCircuitBreaker.observe(503);
+              throw new IOException("Service unavailable");
+            });
+    AsyncSauceREST async = breakerTestClient("server-errors", mockJobsEndpoint);
+
+    for (int i = 0; i < SauceCircuitBreaker.FAILURE_THRESHOLD; i++) {
+      assertFails(async.getJobDetails("server-" + i));
+    }
+    assertTrue(SauceCircuitBreaker.forKey("server-errors").isOpen());
+  }
+
+  private static AsyncSauceREST breakerTestClient(String dataCenter, JobsEndpoint jobsEndpoint) {
+    JenkinsSauceREST mockSauceREST = mock(MockSauceREST.class);
+    when(mockSauceREST.getDataCenterName()).thenReturn(dataCenter);
+    when(mockSauceREST.getJobsEndpoint()).thenReturn(jobsEndpoint);
+    return new AsyncSauceREST(mockSauceREST, AsyncSauceREST.Priority.BACKGROUND);
+  }
+
+  private static void assertFails(CompletableFuture<?> call) {
+    try {
+      AsyncSauceREST.await(call);
+      fail("the call should have failed");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.saucelabs.saucerest.model.jobs.Job;
+import com.squareup.moshi.Moshi;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class JenkinsJobInformationTest {
+
+  /** A job as Sauce returns it, with the given lifecycle fields and no pass/fail verdict. */
+  static JenkinsJobInformation populated(String id, String status, Object endTime)
+      throws Exception {
+    try (InputStream in =
+        JenkinsJobInformationTest.class.getResourceAsStream("/jobs_by_ids.json")) {
+      assertNotNull(in);
+      JSONObject json = new JSONArray(IOUtils.toString(in, StandardCharsets.UTF_8)).getJSONObject(0);
+      json.put("id", id);
+      json.put("status", status);
+      json.put("end_time", endTime == null ? JSONObject.NULL : endTime);
+      json.put("passed", JSONObject.NULL);
+      json.put("consolidated_status", status);
+      Job job = new Moshi.Builder().build().adapter(Job.class).fromJson(json.toString());
+      JenkinsJobInformation information = new JenkinsJobInformation(job.id, "");
+      information.populate(job);
+      return information;
+    }
+  }
+
+  @Test
+  public void testCompletedJobWithoutVerdictIsTerminal() throws Exception {
+    JenkinsJobInformation information = populated("abc", "complete", 1448576078);
+    // populate leaves the verdict unset, it is not what makes the job finished
+    assertNull(information.getStatus());
+    assertTrue(information.isTerminal());
+  }
+
+  @Test
+  public void testErroredJobIsTerminal() throws Exception {
+    assertTrue(populated("abc", "error", 1448576078).isTerminal());
+  }
+
+  @Test
+  public void testRunningJobIsNotTerminal() throws Exception {
+    assertFalse(populated("abc", "in progress", null).isTerminal());
+  }
+
+  @Test
+  public void testVerdictAloneDoesNotMakeAJobTerminal() {
+    JenkinsJobInformation information = new JenkinsJobInformation("abc", "");
+    information.setStatus("Passed");
+    assertFalse(information.isTerminal());
+  }
+}
@@ -0,0 +1,52 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class JobSettleDetectorTest {
+
+  @Test
+  public void testUnchangedJobsSettleWithoutWaitingForTheTimeout() throws Exception {
+    SauceOnDemandBuildAction action = mock(SauceOnDemandBuildAction.class);
+    List<JenkinsJobInformation> jobs =
+        Arrays.asList(
+            JenkinsJobInformationTest.populated("a", "complete", 1448576078),
+            JenkinsJobInformationTest.populated("b", "error", 1448576079));
+    when(action.getJobs()).thenReturn(jobs);
+    when(action.getJobs(true)).thenReturn(jobs);
+
+    JobSettleDetector detector = new JobSettleDetector(action, 30000);
+    AtomicInteger newJobs = new AtomicInteger();
+    assertEquals(2, detector.settle(a -> newJobs.incrementAndGet()));
+    assertTrue(detector.isSettled());
+    assertEquals(0, newJobs.get());
+    assertTrue(detector.getSettleMillis() < 30000);
+  }
+
+  @Test
+  public void testNewJobsAreHandledAndResetTheWait() throws Exception {
+    SauceOnDemandBuildAction action = mock(SauceOnDemandBuildAction.class);
+    List<JenkinsJobInformation> first = new ArrayList<>();
+    first.add(JenkinsJobInformationTest.populated("a", "complete", 1448576078));
+    List<JenkinsJobInformation> second = new ArrayList<>(first);
+    second.add(JenkinsJobInformationTest.populated("b", "in progress", null));
+    when(action.getJobs()).thenReturn(first);
+    when(action.getJobs(true)).thenReturn(second);
+
+    // the new job resets the quiet period, so the wait runs out first
+    JobSettleDetector detector = new JobSettleDetector(action, 1500);
+    AtomicInteger newJobs = new AtomicInteger();
+    assertEquals(2, detector.settle(a -> newJobs.incrementAndGet()));
+    assertFalse(detector.isSettled());
+    assertEquals(1, newJobs.get());
+  }
+}
@@ -0,0 +1,56 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class SauceCircuitBreakerTest {
+
+  @Test
+  public void testOpensAfterRepeatedFailures() throws Exception {
+    SauceCircuitBreaker breaker = new SauceCircuitBreaker("test");
+    for (int i = 0; i < SauceCircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+      breaker.acquire();
+      breaker.onFailure();
+    }
+    assertEquals(SauceCircuitBreaker.State.CLOSED, breaker.getState());
+    breaker.acquire();
+    breaker.onFailure();
+    assertEquals(SauceCircuitBreaker.State.OPEN, breaker.getState());
+    assertTrue(breaker.isOpen());
+    try {
+      breaker.acquire();
+      fail("open breaker should reject calls");
+    } catch (SauceCircuitBreaker.OpenException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSuccessResetsFailureCount() throws Exception {
+    SauceCircuitBreaker breaker = new SauceCircuitBreaker("test");
+    for (int i = 0; i < SauceCircuitBreaker.FAILURE_THRESHOLD * 2; i++) {
+      breaker.acquire();
+      if (i % 2 == 0) {
+        breaker.onFailure();
+      } else {
+        breaker.onSuccess();
+      }
+    }
+    assertEquals(SauceCircuitBreaker.State.CLOSED, breaker.getState());
+    assertFalse(breaker.isOpen());
+  }
+
+  @Test
+  public void testIgnoredCallsDoNotCount() throws Exception {
+    SauceCircuitBreaker breaker = new SauceCircuitBreaker("test");
+    for (int i = 0; i < SauceCircuitBreaker.FAILURE_THRESHOLD * 2; i++) {
+      breaker.acquire();
+      breaker.onIgnored();
+    }
+    assertEquals(SauceCircuitBreaker.State.CLOSED, breaker.getState());
+  }
+}
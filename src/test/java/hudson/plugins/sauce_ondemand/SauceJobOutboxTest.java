@@ -0,0 +1,135 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.saucelabs.saucerest.model.jobs.Job;
+import com.saucelabs.saucerest.model.jobs.UpdateJobParameter;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SauceJobOutboxTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private static SauceJobMutation passed(boolean passed) {
+    return new SauceJobMutation("project#1", "credentials", "abc").setPassed(passed);
+  }
+
+  @Test
+  public void testSameChangeIsQueuedOnce() throws Exception {
+    SauceJobOutbox outbox = new SauceJobOutbox(folder.getRoot());
+    assertTrue(outbox.enqueue(passed(true)));
+    assertFalse(outbox.enqueue(passed(true)));
+    assertTrue(outbox.enqueue(passed(false)));
+    assertTrue(
+        outbox.enqueue(
+            new SauceJobMutation("project#1", "credentials", "abc")
+                .addCustomData(Collections.singletonMap("BUILD_NUMBER", "1"), false)));
+    assertEquals(3, outbox.getPendingCount());
+    assertEquals(1, outbox.getAvoided());
+  }
+
+  @Test
+  public void testPendingChangesSurviveARestart() throws Exception {
+    File directory = folder.getRoot();
+    SauceJobOutbox outbox = new SauceJobOutbox(directory);
+    assertTrue(outbox.enqueue(passed(true)));
+    assertTrue(outbox.enqueue(passed(false)));
+
+    SauceJobOutbox restarted = new SauceJobOutbox(directory);
+    assertFalse(restarted.enqueue(passed(true)));
+    assertEquals(2, restarted.getPendingCount());
+  }
+
+  @Test
+  public void testCustomDataKnownWhenQueuedIsNotDownloadedAgain() throws Exception {
+    AsyncSauceREST jobs = mockJobs();
+    SauceJobOutbox.JobUpdate update = new SauceJobOutbox.JobUpdate("abc");
+    update.add(
+        "key",
+        new SauceJobMutation("project#1", "credentials", "abc")
+            .addCustomData(Collections.singletonMap("FAILURE_MESSAGE", "boom"), true)
+            .setExistingCustomData(Collections.singletonMap("OWNER", "tests")));
+
+    assertTrue(AsyncSauceREST.await(update.send(jobs, null)));
+    verify(jobs, never()).getJobDetails(anyString());
+    Map<String, String> expected = new HashMap<>();
+    expected.put("OWNER", "tests");
+    expected.put("FAILURE_MESSAGE", "boom");
+    assertEquals(expected, update.getSentCustomData());
+  }
+
+  @Test
+  public void testLateReplaceKeepsCustomDataSentByANewerChange() throws Exception {
+    AsyncSauceREST jobs = mockJobs();
+    SauceJobOutbox.JobUpdate update = new SauceJobOutbox.JobUpdate("abc");
+    update.add(
+        "key",
+        new SauceJobMutation("project#1", "credentials", "abc")
+            .addCustomData(Collections.singletonMap("BUILD_NUMBER", "1"), false));
+
+    // the publisher's failure message was sent while this change waited for a retry
+    assertTrue(
+        AsyncSauceREST.await(
+            update.send(jobs, Collections.singletonMap("FAILURE_MESSAGE", "boom"))));
+    Map<String, String> expected = new HashMap<>();
+    expected.put("BUILD_NUMBER", "1");
+    expected.put("FAILURE_MESSAGE", "boom");
+    assertEquals(expected, update.getSentCustomData());
+  }
+
+  @Test
+  public void testReplayedChangeKeepsCustomDataSentBeforeARestart() throws Exception {
+    File directory = folder.getRoot();
+    SauceJobOutbox outbox = new SauceJobOutbox(directory);
+    assertTrue(
+        outbox.enqueue(
+            new SauceJobMutation("project#1", "credentials", "abc")
+                .addCustomData(Collections.singletonMap("BUILD_NUMBER", "1"), true)
+                .setExistingCustomData(Collections.singletonMap("OWNER", "tests"))));
+
+    // the publisher's failure message was accepted while the change above waited for a retry
+    AsyncSauceREST jobs = mockJobs();
+    SauceJobOutbox.JobUpdate newer = new SauceJobOutbox.JobUpdate("abc");
+    newer.add(
+        "newer",
+        new SauceJobMutation("project#1", "credentials", "abc")
+            .addCustomData(Collections.singletonMap("FAILURE_MESSAGE", "boom"), true)
+            .setExistingCustomData(Collections.singletonMap("OWNER", "tests")));
+    assertTrue(AsyncSauceREST.await(newer.send(jobs, null)));
+    outbox.accepted(newer);
+
+    SauceJobOutbox restarted = new SauceJobOutbox(directory);
+    Map<String, Map<String, SauceJobOutbox.JobUpdate>> due = restarted.dueUpdates(Long.MAX_VALUE);
+    assertEquals(1, due.size());
+    SauceJobOutbox.JobUpdate replayed = due.values().iterator().next().get("abc");
+    assertTrue(AsyncSauceREST.await(replayed.send(jobs, restarted.getAppliedCustomData("abc"))));
+    Map<String, String> expected = new HashMap<>();
+    expected.put("OWNER", "tests");
+    expected.put("FAILURE_MESSAGE", "boom");
+    expected.put("BUILD_NUMBER", "1");
+    assertEquals(expected, replayed.getSentCustomData());
+  }
+
+  private static AsyncSauceREST mockJobs() {
+    AsyncSauceREST jobs = mock(AsyncSauceREST.class);
+    when(jobs.updateJob(eq("abc"), any(UpdateJobParameter.class)))
+        .thenReturn(CompletableFuture.completedFuture(new Job()));
+    return jobs;
+  }
+}
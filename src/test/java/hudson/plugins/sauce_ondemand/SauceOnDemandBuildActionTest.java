@@ -3,12 +3,18 @@ package hudson.plugins.sauce_ondemand;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.endsWith;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.cloudbees.plugins.credentials.CredentialsScope;
@@ -35,6 +41,11 @@ import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.plugins.sauce_ondemand.credentials.SauceCredentials;
 import hudson.plugins.sauce_ondemand.mocks.MockSauceREST;
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.SuiteResult;
+import hudson.tasks.junit.TestResult;
+import hudson.tasks.junit.TestResultAction;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
@@ -47,8 +58,12 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import org.apache.commons.io.IOUtils;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.junit.Before;
 import org.junit.ClassRule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
@@ -58,24 +73,33 @@ import org.jvnet.hudson.test.SingleFileSCM;
 public class SauceOnDemandBuildActionTest {
   @ClassRule public static JenkinsRule jenkins = new JenkinsRule();
 
+  private JenkinsSauceREST sauceREST;
+  private BuildsEndpoint buildsEndpoint;
+  private JobsEndpoint jobsEndpoint;
+
+  @Before
+  public void setUp() {
+    sauceREST = mock(MockSauceREST.class);
+    buildsEndpoint = mock(BuildsEndpoint.class);
+    jobsEndpoint = mock(JobsEndpoint.class);
+    when(sauceREST.getBuildsEndpoint()).thenReturn(buildsEndpoint);
+    when(sauceREST.getJobsEndpoint()).thenReturn(jobsEndpoint);
+  }
+
   @Test
   public void doJobReportTest() throws Exception {
-    final JenkinsSauceREST mockSauceREST = mock(MockSauceREST.class);
-    final JobsEndpoint mockJobsEndpoint = mock(JobsEndpoint.class);
-    final SauceConnectEndpoint mockSauceConnectEndpoint = mock(SauceConnectEndpoint.class);
+    final SauceConnectEndpoint sauceConnectEndpoint = mock(SauceConnectEndpoint.class);
 
     List<Job> jobs = makeBuildJobsResponse();
-    when(mockJobsEndpoint.getJobDetails(anyList())).thenReturn(jobs);
-    when(mockJobsEndpoint.getJobDetails(anyString())).thenReturn(jobs.get(0));
-    when(mockSauceConnectEndpoint.getTunnelsForAUser()).thenReturn(Collections.emptyList());
-
-    when(mockSauceREST.getJobsEndpoint()).thenReturn(mockJobsEndpoint);
-    when(mockSauceREST.getSauceConnectEndpoint()).thenReturn(mockSauceConnectEndpoint);
+    when(jobsEndpoint.getJobDetails(anyList())).thenReturn(jobs);
+    when(jobsEndpoint.getJobDetails(anyString())).thenReturn(jobs.get(0));
+    when(sauceConnectEndpoint.getTunnelsForAUser()).thenReturn(Collections.emptyList());
+    when(sauceREST.getSauceConnectEndpoint()).thenReturn(sauceConnectEndpoint);
 
     TestSauceOnDemandBuildWrapper bw =
         new TestSauceOnDemandBuildWrapper(
             SauceCredentials.migrateToCredentials("fakeuser", "fakekey", null, "unittest"),
-            mockSauceREST);
+            sauceREST);
     bw.setEnableSauceConnect(false);
 
     FreeStyleProject freeStyleProject = jenkins.createFreeStyleProject();
@@ -85,7 +109,7 @@ public class SauceOnDemandBuildActionTest {
         new SauceOnDemandBuildAction(build, bw.getCredentialId()) {
           @Override
           protected JenkinsSauceREST getSauceREST() {
-            return mockSauceREST;
+            return sauceREST;
           }
         };
     build.addAction(buildAction);
@@ -148,98 +172,231 @@ public class SauceOnDemandBuildActionTest {
   @Test
   public void testRetrieveJobIdsFromSauce() throws Exception {
     final FreeStyleBuild build = makeMavenBuild();
-    final SauceCredentials credentials = makeSauceCredentials();
-    final JenkinsSauceREST mockSauceREST = mock(MockSauceREST.class);
     final List<String> jobIds = makeJobIds(4);
-    final JobsInBuild buildJobsList = makeJobsResponse(jobIds);
-    final List<Job> jobsResponseList = makeJobListResponse(jobIds);
-    final List<Build> builds = makeBuildsByNameResponse();
-    final BuildsEndpoint mockBuildsEndpoint = mock(BuildsEndpoint.class);
-    final JobsEndpoint mockJobsEndpoint = mock(JobsEndpoint.class);
-
-    when(mockBuildsEndpoint.lookupJobsForBuild(
-            any(JobSource.class), anyString(), any(LookupJobsParameters.class)))
-        .thenReturn(buildJobsList);
+    mockBuildListing(jobIds);
+    when(jobsEndpoint.getJobDetails(anyList())).thenReturn(makeJobListResponse(jobIds));
 
-    when(mockBuildsEndpoint.lookupBuilds(any(JobSource.class), any(LookupBuildsParameters.class)))
-        .thenReturn(builds);
-
-    when(mockBuildsEndpoint.lookupJobsForBuild(
-            any(JobSource.class), anyString(), any(LookupJobsParameters.class)))
-        .thenReturn(buildJobsList);
+    LinkedHashMap<String, JenkinsJobInformation> jobInformation =
+        SauceOnDemandBuildAction.retrieveJobIdsFromSauce(sauceREST, build, makeSauceCredentials());
 
-    when(mockJobsEndpoint.getJobDetails(anyList())).thenReturn(jobsResponseList);
+    Set<String> jobIdsSet = new HashSet<>(jobIds);
+    assertEquals(jobInformation.keySet(), jobIdsSet);
+  }
 
-    when(mockSauceREST.getBuildsEndpoint()).thenReturn(mockBuildsEndpoint);
-    when(mockSauceREST.getJobsEndpoint()).thenReturn(mockJobsEndpoint);
+  @Test
+  public void testRetrieveJobIdsFromSauceSplitsCallsToResto() throws Exception {
+    final FreeStyleBuild build = makeMavenBuild();
+    final List<String> jobIds = makeJobIds(30);
+    mockBuildListing(jobIds);
+    when(jobsEndpoint.getJobDetails(anyList()))
+        .thenReturn(makeJobListResponse(jobIds.subList(0, 20)))
+        .thenReturn(makeJobListResponse(jobIds.subList(20, jobIds.size())));
 
     LinkedHashMap<String, JenkinsJobInformation> jobInformation =
-        SauceOnDemandBuildAction.retrieveJobIdsFromSauce(mockSauceREST, build, credentials);
+        SauceOnDemandBuildAction.retrieveJobIdsFromSauce(sauceREST, build, makeSauceCredentials());
 
     Set<String> jobIdsSet = new HashSet<>(jobIds);
     assertEquals(jobInformation.keySet(), jobIdsSet);
   }
 
   @Test
-  public void testRetrieveJobIdsFromSauceSplitsCallsToResto() throws Exception {
+  public void testRefreshSkipsFinishedJobs() throws Exception {
     final FreeStyleBuild build = makeMavenBuild();
-    final SauceCredentials credentials = makeSauceCredentials();
-    final JenkinsSauceREST mockSauceREST = mock(MockSauceREST.class);
-    final int jobCount = 30;
-    final List<String> jobIds = makeJobIds(jobCount);
-    final JobsInBuild buildJobsList = makeJobsResponse(jobIds);
-    final List<Job> jobsResponse1 = makeJobListResponse(jobIds.subList(0, 20));
-    final List<Job> jobsResponse2 = makeJobListResponse(jobIds.subList(20, jobIds.size()));
-    final List<Build> buildList = makeBuildsByNameResponse();
-    final BuildsEndpoint mockBuildsEndpoint = mock(BuildsEndpoint.class);
-    final JobsEndpoint mockJobsEndpoint = mock(JobsEndpoint.class);
-
-    when(mockBuildsEndpoint.lookupBuilds(any(JobSource.class), any(LookupBuildsParameters.class)))
-        .thenReturn(buildList);
-
-    when(mockBuildsEndpoint.lookupJobsForBuild(
-            any(JobSource.class), anyString(), any(LookupJobsParameters.class)))
-        .thenReturn(buildJobsList);
-
-    when(mockJobsEndpoint.getJobDetails(anyList()))
-        .thenReturn(jobsResponse1)
-        .thenReturn(jobsResponse2);
+    final List<String> jobIds = makeJobIds(4);
+    mockBuildListing(jobIds);
 
-    when(mockSauceREST.getBuildsEndpoint()).thenReturn(mockBuildsEndpoint);
-    when(mockSauceREST.getJobsEndpoint()).thenReturn(mockJobsEndpoint);
+    List<JenkinsJobInformation> known = new ArrayList<>();
+    for (Job job : makeJobListResponse(jobIds)) {
+      JenkinsJobInformation information = new JenkinsJobInformation(job.id, "");
+      information.populate(job);
+      known.add(information);
+    }
 
     LinkedHashMap<String, JenkinsJobInformation> jobInformation =
-        SauceOnDemandBuildAction.retrieveJobIdsFromSauce(mockSauceREST, build, credentials);
+        SauceOnDemandBuildAction.retrieveJobIdsFromSauce(
+            sauceREST, build, makeSauceCredentials(), known);
 
-    Set<String> jobIdsSet = new HashSet<>(jobIds);
-    assertEquals(jobInformation.keySet(), jobIdsSet);
+    assertEquals(new HashSet<>(jobIds), jobInformation.keySet());
+    verify(jobsEndpoint, never()).getJobDetails(anyList());
   }
 
   @Test
-  public void testRetrieveJobIdsFromSauceIfBuildIsNotFound() throws Exception {
+  public void testRetrievedJobDetailsAreCachedForThePublish() throws Exception {
     final FreeStyleBuild build = makeMavenBuild();
-    final SauceCredentials credentials = makeSauceCredentials();
-    final JenkinsSauceREST mockSauceREST = mock(MockSauceREST.class);
-    final BuildsEndpoint mockBuildsEndpoint = mock(BuildsEndpoint.class);
+    final List<String> jobIds = makeJobIds(3);
+    mockBuildListing(jobIds);
+    when(jobsEndpoint.getJobDetails(anyList())).thenReturn(makeJobListResponse(jobIds));
+
+    JobDetailsCache detailsCache = new JobDetailsCache(new AsyncSauceREST(sauceREST));
+    SauceOnDemandBuildAction.retrieveJobIdsFromSauce(
+        sauceREST, build, makeSauceCredentials(), null, detailsCache);
+
+    for (String jobId : jobIds) {
+      assertEquals(jobId, AsyncSauceREST.await(detailsCache.getJobDetails(jobId)).id);
+    }
+    verify(jobsEndpoint, never()).getJobDetails(anyString());
+  }
+
+  @Test
+  public void testCaseSessionsOfEveryJunitStepAreKept() throws Exception {
+    WorkflowJob project =
+        jenkins.createProject(WorkflowJob.class, "testCaseSessionsOfEveryJunitStepAreKept");
+    project.setDefinition(
+        new CpsFlowDefinition(
+            "node {\n"
+                + "  writeFile file: 'first.xml', text: '"
+                + makeJunitReport("FirstTest", "testLogin")
+                + "'\n"
+                + "  junit 'first.xml'\n"
+                + "  writeFile file: 'second.xml', text: '"
+                + makeJunitReport("SecondTest", "testCheckout")
+                + "'\n"
+                + "  junit 'second.xml'\n"
+                + "}",
+            true));
+    WorkflowRun run = jenkins.assertBuildStatusSuccess(project.scheduleBuild2(0));
+    TestResult results = run.getAction(TestResultAction.class).getResult();
+    assertEquals(2, results.getSuites().size());
+
+    List<JenkinsJobInformation> jobs = new ArrayList<>();
+    jobs.add(makeNamedJob("first-job", "FirstTest.testLogin"));
+    jobs.add(makeNamedJob("second-job", "SecondTest.testCheckout"));
+
+    // each junit step publishes the cases of its own report only
+    SauceOnDemandBuildAction buildAction = new SauceOnDemandBuildAction(run, "credentials-id");
+    List<String> caseIds = new ArrayList<>();
+    for (SuiteResult suite : results.getSuites()) {
+      TestResult stepResult = mock(TestResult.class);
+      when(stepResult.getSuites()).thenReturn(Collections.singletonList(suite));
+      SauceOnDemandReportFactory.mapCaseSessions(
+          buildAction,
+          stepResult,
+          SauceOnDemandReportPublisher.indexTestNames(stepResult),
+          jobs);
+      for (CaseResult caseResult : suite.getCases()) {
+        caseIds.add(caseResult.getId());
+      }
+    }
+
+    assertEquals(2, caseIds.size());
+    for (String caseId : caseIds) {
+      String expected = caseId.contains("FirstTest") ? "first-job" : "second-job";
+      assertArrayEquals(new String[] {expected}, buildAction.getCaseJobIds(caseId));
+    }
+  }
 
-    when(mockBuildsEndpoint.lookupJobsForBuild(
+  @Test
+  public void testShortJobListingMarksTheJobsStale() throws Exception {
+    // Sauce reports two finished jobs for the build, but only lists one
+    final List<String> jobIds = makeJobIds(1);
+    mockBuildListing(jobIds);
+    when(jobsEndpoint.getJobDetails(anyList())).thenReturn(makeJobListResponse(jobIds));
+
+    SauceOnDemandBuildAction buildAction = makeBuildAction();
+
+    assertEquals(1, buildAction.getJobs(true).size());
+    assertTrue(buildAction.isStale());
+  }
+
+  @Test
+  public void testRefreshStoresNoAnalyticsFromAShortJobListing() throws Exception {
+    // Sauce reports two finished jobs for the build, but only lists one
+    final List<String> jobIds = makeJobIds(1);
+    mockBuildListing(jobIds);
+    when(jobsEndpoint.getJobDetails(anyList())).thenReturn(makeJobListResponse(jobIds));
+
+    SauceOnDemandBuildAction buildAction = makeBuildAction();
+    buildAction.refreshFromSauce();
+
+    assertTrue(buildAction.isStale());
+    assertNull(buildAction.getAnalyticsSnapshot());
+  }
+
+  @Test
+  public void testRefreshStoresAnalyticsOnceEveryJobIsListed() throws Exception {
+    final List<String> jobIds = makeJobIds(2);
+    mockBuildListing(jobIds);
+    when(jobsEndpoint.getJobDetails(anyList())).thenReturn(makeJobListResponse(jobIds));
+
+    SauceOnDemandBuildAction buildAction = makeBuildAction();
+    buildAction.refreshFromSauce();
+
+    assertFalse(buildAction.isStale());
+    assertNotNull(buildAction.getAnalyticsSnapshot());
+  }
+
+  @Test
+  public void testFailedBuildLookupStoresNoAnalytics() throws Exception {
+    when(buildsEndpoint.lookupBuilds(any(JobSource.class), any(LookupBuildsParameters.class)))
+        .thenThrow(new IOException("Sauce is unavailable"));
+
+    SauceOnDemandBuildAction buildAction = makeBuildAction();
+    buildAction.setJobs(new ArrayList<JenkinsJobInformation>());
+
+    buildAction.updateAnalytics(null);
+    assertTrue(buildAction.isStale());
+    assertNull(buildAction.getAnalyticsSnapshot());
+    // the placeholder is not kept, so the build is looked up again
+    assertNull(buildAction.getKnownSauceBuild());
+  }
+
+  @Test
+  public void testRetrieveJobIdsFromSauceIfBuildIsNotFound() throws Exception {
+    final FreeStyleBuild build = makeMavenBuild();
+    when(buildsEndpoint.lookupJobsForBuild(
             any(JobSource.class), anyString(), any(LookupJobsParameters.class)))
         .thenReturn(new JobsInBuild());
 
-    when(mockSauceREST.getBuildsEndpoint()).thenReturn(mockBuildsEndpoint);
-
     LinkedHashMap<String, JenkinsJobInformation> jobInformation =
-        SauceOnDemandBuildAction.retrieveJobIdsFromSauce(mockSauceREST, build, credentials);
+        SauceOnDemandBuildAction.retrieveJobIdsFromSauce(sauceREST, build, makeSauceCredentials());
 
     assertEquals(jobInformation.keySet().size(), 0);
   }
 
+  /** Makes Sauce find one build for the test, listing the given jobs. */
+  private void mockBuildListing(List<String> jobIds) throws Exception {
+    when(buildsEndpoint.lookupBuilds(any(JobSource.class), any(LookupBuildsParameters.class)))
+        .thenReturn(makeBuildsByNameResponse());
+    when(buildsEndpoint.lookupJobsForBuild(
+            any(JobSource.class), anyString(), any(LookupJobsParameters.class)))
+        .thenReturn(makeJobsResponse(jobIds));
+  }
+
+  /** @return an action for a new build, which talks to the mocked Sauce REST client */
+  private SauceOnDemandBuildAction makeBuildAction() throws Exception {
+    FreeStyleBuild build = makeMavenBuild();
+    String credentialsId =
+        build
+            .getProject()
+            .getBuildWrappersList()
+            .get(TestSauceOnDemandBuildWrapper.class)
+            .getCredentialId();
+    return new SauceOnDemandBuildAction(build, credentialsId) {
+      @Override
+      protected JenkinsSauceREST getSauceREST() {
+        return sauceREST;
+      }
+    };
+  }
+
   private List<String> makeJobIds(int jobCount) {
     List<String> jobIds = new ArrayList<>();
     for (int i = 0; i < jobCount; i++) jobIds.add(String.format("%032x", i + 1));
     return jobIds;
   }
 
+  private String makeJunitReport(String className, String testName) {
+    return "<testsuite name=\"" + className + "\" tests=\"1\">"
+        + "<testcase classname=\"" + className + "\" name=\"" + testName + "\"/>"
+        + "</testsuite>";
+  }
+
+  private JenkinsJobInformation makeNamedJob(String jobId, String name) {
+    JenkinsJobInformation job = new JenkinsJobInformation(jobId, "");
+    job.setName(name);
+    return job;
+  }
+
   private SauceCredentials makeSauceCredentials() {
     return new SauceCredentials(
         CredentialsScope.GLOBAL, "credentials-id", "fakeuser", "fake-access-key", "localhost", "");
@@ -3,7 +3,13 @@ package hudson.plugins.sauce_ondemand;
 import static junit.framework.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
+import hudson.tasks.junit.CaseResult;
+import hudson.tasks.junit.SuiteResult;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import org.junit.Test;
@@ -45,4 +51,23 @@ public class SauceOnDemandReportPublisherTest {
         assertEquals("941b498c5ad544dba92fe73fabfa9eb6", details.get(1).getJobId());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testProcessSuites_keepsSuiteOrder() throws Exception {
+        List<SuiteResult> suites = new ArrayList<SuiteResult>();
+        for (int i = 0; i < 50; i++) {
+            SuiteResult suite = mock(SuiteResult.class);
+            when(suite.getStdout()).thenReturn("SauceOnDemandSessionID=" + Integer.toHexString(i + 0x100));
+            CaseResult caseResult = mock(CaseResult.class);
+            when(caseResult.getStdout()).thenReturn("SauceOnDemandSessionID=" + Integer.toHexString(i + 0x200));
+            when(suite.getCases()).thenReturn(Collections.singletonList(caseResult));
+            suites.add(suite);
+        }
+
+        List<TestIDDetails> details = SauceOnDemandReportPublisher.processSuites(suites, 4);
+        assertEquals(100, details.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(Integer.toHexString(i + 0x100), details.get(2 * i).getJobId());
+            assertEquals(Integer.toHexString(i + 0x200), details.get(2 * i + 1).getJobId());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import com.saucelabs.saucerest.DataCenter;
+import hudson.ProxyConfiguration;
+import org.junit.After;
+import org.junit.Test;
+
+public class SauceRESTRegistryTest {
+
+  @After
+  public void tearDown() {
+    SauceRESTRegistry.invalidateAll();
+  }
+
+  @Test
+  public void testSameAccountSharesClient() {
+    JenkinsSauceREST first = SauceRESTRegistry.get("fakeuser", "fakekey", DataCenter.US_WEST, null);
+    JenkinsSauceREST second = SauceRESTRegistry.get("fakeuser", "fakekey", DataCenter.US_WEST, null);
+    assertSame(first, second);
+  }
+
+  @Test
+  public void testDifferentKeyOrDataCenterGetsNewClient() {
+    JenkinsSauceREST first = SauceRESTRegistry.get("fakeuser", "fakekey", DataCenter.US_WEST, null);
+    assertNotSame(first, SauceRESTRegistry.get("fakeuser", "otherkey", DataCenter.US_WEST, null));
+    assertNotSame(first, SauceRESTRegistry.get("fakeuser", "fakekey", DataCenter.EU_CENTRAL, null));
+  }
+
+  @Test
+  public void testInvalidateAll() {
+    JenkinsSauceREST first = SauceRESTRegistry.get("fakeuser", "fakekey", DataCenter.US_WEST, null);
+    SauceRESTRegistry.invalidateAll();
+    assertNotSame(first, SauceRESTRegistry.get("fakeuser", "fakekey", DataCenter.US_WEST, null));
+  }
+
+  @Test
+  public void testRotatedSecretReplacesTheClientOfTheCredential() {
+    JenkinsSauceREST first =
+        SauceRESTRegistry.get("credentials", "fakeuser", "token-1", DataCenter.US_WEST, null);
+    JenkinsSauceREST second =
+        SauceRESTRegistry.get("credentials", "fakeuser", "token-2", DataCenter.US_WEST, null);
+    assertNotSame(first, second);
+    assertSame(
+        second,
+        SauceRESTRegistry.get("credentials", "fakeuser", "token-2", DataCenter.US_WEST, null));
+    assertEquals(1, SauceRESTRegistry.size());
+  }
+
+  @Test
+  public void testDifferentProxyGetsNewClient() {
+    JenkinsSauceREST first =
+        SauceRESTRegistry.get(
+            "fakeuser", "fakekey", DataCenter.US_WEST, new ProxyConfiguration("proxy", 3128));
+    assertSame(
+        first,
+        SauceRESTRegistry.get(
+            "fakeuser", "fakekey", DataCenter.US_WEST, new ProxyConfiguration("proxy", 3128)));
+    assertNotSame(
+        first,
+        SauceRESTRegistry.get(
+            "fakeuser", "fakekey", DataCenter.US_WEST, new ProxyConfiguration("proxy", 8080)));
+  }
+}
@@ -0,0 +1,76 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+public class SauceRateLimiterTest {
+
+  @Test
+  public void testParseRetryAfterSeconds() {
+    assertEquals(5000, SauceRateLimiter.parseRetryAfter("5", 0));
+    assertEquals(0, SauceRateLimiter.parseRetryAfter(null, 0));
+    assertEquals(0, SauceRateLimiter.parseRetryAfter("soon", 0));
+  }
+
+  @Test
+  public void testParseRetryAfterDate() {
+    long now = 1445412480000L; // Wed, 21 Oct 2015 07:28:00 GMT
+    assertEquals(30000, SauceRateLimiter.parseRetryAfter("Wed, 21 Oct 2015 07:28:30 GMT", now));
+    assertEquals(0, SauceRateLimiter.parseRetryAfter("Wed, 21 Oct 2015 07:27:00 GMT", now));
+  }
+
+  @Test
+  public void testParseReset() {
+    assertEquals(3000, SauceRateLimiter.parseReset("3", 0));
+    long now = 1445412480000L;
+    assertEquals(2000, SauceRateLimiter.parseReset("1445412482", now));
+  }
+
+  @Test
+  public void testBucketThrottlesAfterBurst() {
+    SauceRateLimiter.Bucket bucket = new SauceRateLimiter.Bucket();
+    long now = System.nanoTime();
+    for (int i = 0; i < SauceRateLimiter.BURST; i++) {
+      assertEquals(0, bucket.tryAcquire(now));
+    }
+    assertTrue(bucket.tryAcquire(now) > 0);
+    assertEquals(0, bucket.tryAcquire(now + TimeUnit.SECONDS.toNanos(1)));
+  }
+
+  @Test
+  public void testPausedBucketWaitsForServer() {
+    SauceRateLimiter.Bucket bucket = new SauceRateLimiter.Bucket();
+    long now = System.nanoTime();
+    bucket.pause(now + TimeUnit.SECONDS.toNanos(5));
+    assertEquals(TimeUnit.SECONDS.toNanos(5), bucket.tryAcquire(now));
+    assertEquals(0, bucket.tryAcquire(now + TimeUnit.SECONDS.toNanos(6)));
+  }
+
+  @Test
+  public void testAdmittedCallIsNotHeldWhenOutOfTokens() {
+    String account = "admitted-" + System.nanoTime();
+    assertEquals(0, SauceRateLimiter.tryAcquire(account, SauceRateLimiter.BURST));
+    assertTrue(SauceRateLimiter.tryAcquire(account, 1) > 0);
+
+    AtomicBoolean rateLimited = new AtomicBoolean();
+    SauceRateLimiter.runAdmitted(
+        1,
+        () -> {
+          try {
+            // uses the token taken on admission
+            SauceRateLimiter.acquireAdmitted(account);
+            SauceRateLimiter.acquireAdmitted(account);
+          } catch (SauceRateLimiter.RateLimitedException e) {
+            rateLimited.set(true);
+          }
+          assertEquals(2, SauceRateLimiter.getAdmittedRequests());
+        });
+    assertTrue(rateLimited.get());
+    assertFalse(SauceRateLimiter.isAdmitted());
+  }
+}
@@ -0,0 +1,55 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import hudson.model.Run;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.Test;
+
+public class SessionIdLogFilterTest {
+
+  @Test
+  public void testBytesWrittenOneAtATimeAreCapturedAndPassedThrough() throws Exception {
+    SauceOnDemandBuildAction action = new SauceOnDemandBuildAction(null, "credentials");
+    Run<?, ?> run = mock(Run.class);
+    when(run.getExternalizableId()).thenReturn("project#1");
+    when(run.getCharset()).thenReturn(StandardCharsets.UTF_8);
+    when(run.getAction(SauceOnDemandBuildAction.class)).thenReturn(action);
+
+    byte[] log =
+        ("Started by user\n"
+                + "SauceOnDemandSessionID=abc123 job-name=first\n"
+                + "SauceOnDemandSessionID=def456 job-name=last")
+            .getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream console = new ByteArrayOutputStream();
+    try (OutputStream out = new SessionIdLogFilter(run).decorateLogger(run, console)) {
+      for (byte b : log) {
+        out.write(b);
+      }
+      // a whole line is captured as soon as it ends
+      assertEquals(1, action.getLiveSessionIds().size());
+    }
+
+    List<TestIDDetails> captured = action.getLiveSessionIds();
+    assertEquals(2, captured.size());
+    assertEquals("abc123", captured.get(0).getJobId());
+    assertEquals("last", captured.get(1).getJobName());
+    assertEquals(new String(log, StandardCharsets.UTF_8), console.toString("UTF-8"));
+  }
+
+  @Test
+  public void testConsoleOfAnAgentPassesThroughUncaptured() throws Exception {
+    Run<?, ?> run = mock(Run.class);
+    when(run.getExternalizableId()).thenReturn("project#1");
+
+    // no Jenkins instance here, as on an agent
+    ByteArrayOutputStream console = new ByteArrayOutputStream();
+    assertSame(console, new SessionIdLogFilter(run).decorateLogger(null, console));
+  }
+}
@@ -0,0 +1,79 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.junit.Test;
+
+public class SessionIdScannerTest {
+
+  private static List<TestIDDetails> scan(byte[] log) throws Exception {
+    List<TestIDDetails> found = new ArrayList<>();
+    SessionIdScanner.scan(new ByteArrayInputStream(log), StandardCharsets.UTF_8, found::add);
+    return found;
+  }
+
+  @Test
+  public void testFindsIdsOnCandidateLinesOnly() throws Exception {
+    byte[] log =
+        ("Started by user\n"
+                + "SauceOnDemandSessionID=abc123 job-name=gavin\r\n"
+                + "SauceOnDemandSauceOnDemandSessionID=def456\r"
+                + "nothing to see\n"
+                + "[firefox] SauceOnDemandSessionID=941b498c job-name=Insert Job Name Here")
+            .getBytes(StandardCharsets.UTF_8);
+    List<TestIDDetails> found = scan(log);
+    assertEquals(3, found.size());
+    assertEquals("abc123", found.get(0).getJobId());
+    assertEquals("gavin", found.get(0).getJobName());
+    assertEquals("def456", found.get(1).getJobId());
+    assertEquals("941b498c", found.get(2).getJobId());
+    assertEquals("Insert Job Name Here", found.get(2).getJobName());
+  }
+
+  @Test
+  public void testMarkerSplitAcrossWrites() {
+    byte[] log = "xx SauceOnDemandSessionID=abc123 job-name=split\n".getBytes(StandardCharsets.UTF_8);
+    List<TestIDDetails> found = new ArrayList<>();
+    SessionIdScanner scanner = new SessionIdScanner(StandardCharsets.UTF_8, found::add);
+    for (int i = 0; i < log.length; i++) {
+      scanner.write(log, i, 1);
+    }
+    scanner.finish();
+    assertEquals(1, found.size());
+    assertEquals("abc123", found.get(0).getJobId());
+    assertEquals("split", found.get(0).getJobName());
+  }
+
+  @Test
+  public void testConsoleNotesAreStripped() throws Exception {
+    byte[] log =
+        "SauceOnDemandSessionID=abc123 job-name=noted\u001B[8mha:AAAA\u001B[0m\n"
+            .getBytes(StandardCharsets.UTF_8);
+    List<TestIDDetails> found = scan(log);
+    assertEquals(1, found.size());
+    assertEquals("noted", found.get(0).getJobName());
+  }
+
+  @Test
+  public void testCompressedLog() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+      gzip.write("SauceOnDemandSessionID=abc123\n".getBytes(StandardCharsets.UTF_8));
+    }
+    List<TestIDDetails> found = scan(bytes.toByteArray());
+    assertEquals(1, found.size());
+    assertEquals("abc123", found.get(0).getJobId());
+  }
+
+  @Test
+  public void testEmptyLog() throws Exception {
+    assertTrue(scan(new byte[0]).isEmpty());
+  }
+}
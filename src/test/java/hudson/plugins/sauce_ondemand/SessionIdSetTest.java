@@ -0,0 +1,29 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+
+public class SessionIdSetTest {
+
+  @Test
+  public void testOneEntryPerJobMergingNames() {
+    SessionIdSet ids = new SessionIdSet();
+    assertTrue(ids.add(new TestIDDetails("abc", null)));
+    assertTrue(ids.add(new TestIDDetails("def", "first")));
+    assertFalse(ids.add(new TestIDDetails("abc", "named")));
+    assertFalse(ids.add(new TestIDDetails("def", "second")));
+    assertFalse(ids.add(new TestIDDetails("abc", null)));
+
+    List<TestIDDetails> list = ids.toList();
+    assertEquals(2, list.size());
+    assertEquals("abc", list.get(0).getJobId());
+    assertEquals("named", list.get(0).getJobName());
+    assertEquals("def", list.get(1).getJobId());
+    assertEquals("first", list.get(1).getJobName());
+    assertEquals(3, ids.getDuplicates());
+  }
+}
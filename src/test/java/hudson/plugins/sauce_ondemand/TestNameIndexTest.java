@@ -0,0 +1,75 @@
+package hudson.plugins.sauce_ondemand;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import hudson.tasks.junit.CaseResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class TestNameIndexTest {
+
+  private static CaseResult testCase(String fullName, String displayName) {
+    CaseResult cr = mock(CaseResult.class);
+    when(cr.getFullName()).thenReturn(fullName);
+    when(cr.getDisplayName()).thenReturn(displayName);
+    return cr;
+  }
+
+  private final List<CaseResult> cases =
+      Arrays.asList(
+          testCase("com.example.LoginTest.testLogin", "testLogin"),
+          testCase("com.example.LoginTest.testLogout", "testLogout"),
+          testCase("com.example.SearchTest.testSearch[chrome]", "testSearch[chrome]"),
+          testCase("com.example.SearchTest.testSearch[firefox]", "testSearch[firefox]"),
+          testCase("org.other.Cart.add", "add"));
+
+  private final List<String> jobNames =
+      Arrays.asList(
+          "com.example.LoginTest.testLogin",
+          "LoginTest.testLogout",
+          "testSearch[firefox]",
+          "Search",
+          "my job: testLogin on chrome",
+          "Cart.add",
+          "add",
+          "ad",
+          "x",
+          "nothing matches this",
+          "");
+
+  @Test
+  public void testMatchesLikeStringComparisons() {
+    TestNameIndex index = new TestNameIndex(cases);
+    for (String jobName : jobNames) {
+      List<CaseResult> endsWith = new ArrayList<CaseResult>();
+      List<CaseResult> contains = new ArrayList<CaseResult>();
+      for (CaseResult cr : cases) {
+        String fullName = cr.getFullName();
+        boolean common = jobName.equals(fullName) || jobName.contains(cr.getDisplayName());
+        if (common || fullName.endsWith(jobName)) {
+          endsWith.add(cr);
+        }
+        if (common || fullName.contains(jobName)) {
+          contains.add(cr);
+        }
+      }
+      assertEquals(jobName, endsWith, index.matches(jobName, TestNameIndex.Rule.ENDS_WITH));
+      assertEquals(jobName, contains, index.matches(jobName, TestNameIndex.Rule.CONTAINS));
+    }
+  }
+
+  @Test
+  public void testFirstMatchFollowsCaseOrder() {
+    TestNameIndex index = new TestNameIndex(cases);
+    assertSame(cases.get(2), index.firstMatch("testSearch", TestNameIndex.Rule.CONTAINS));
+    assertSame(cases.get(0), index.firstMatch("my job: testLogin", TestNameIndex.Rule.CONTAINS));
+    assertNull(index.firstMatch("testSearch", TestNameIndex.Rule.ENDS_WITH));
+    assertNull(index.firstMatch(null, TestNameIndex.Rule.CONTAINS));
+  }
+}